@@ -27,6 +27,8 @@
 //   [H]     Toggle HUD (hides everything, including buttons; only pentagon + colors stay)
 //   [F11] or [Alt+Enter] Fullscreen
 //   [Esc]  Exit (or exit fullscreen first)
+//   [F3]   Frame-time overlay ([Shift+F3] toggles the pentagon cache to compare)
+//   [PgUp] / [PgDn] Older / newer saved session in the History window
 //
 //
 // Speed modes (loop length):
@@ -52,6 +54,28 @@
 //   [7] Continuous
 //   [8] Kinetic 72° steps
 //   [0] No motion
+//
+//
+// Startup options (-D system properties):
+//   buga.audio.sink=line|wav|null    audio output (default: line)
+//   buga.audio.file=<path>           WAV file for the wav sink (default: session.wav)
+//   buga.audio.paced=true|false      hold wav/null sinks to real time (default: true)
+//   buga.synth.quality=block|table|exact  oscillator engine (default: block)
+//   buga.render.cache=true|false     cached pentagon layers (default: true)
+//   buga.render.active=true|false    page-flipped active rendering in fullscreen (default: true)
+//   buga.render.quality=auto|full|no-ao|no-glows|flat|low-res  pentagon detail (default: auto, by frame time)
+//   buga.render.scale=0.5..1.0       resolution of background and pentagon; the HUD stays native (default: 1.0)
+//   buga.checkpoint.seconds=<n>      how often a running session is checkpointed for crash recovery, 0 = never (default: 10)
+//
+// Tools (program arguments):
+//   --bench-synth [seconds]          synthesis throughput into a null sink
+//   --check-alloc [frames]           bytes allocated per painted frame (fails above a limit)
+//   --bench-render [--size 1920x1080] [--speed IGNITE] [--fps 60] [--png <dir>] [--png-every 15]
+//                                    headless paint throughput and frame-time percentiles, all modes
+//   --bench-startup [records...]     launch time and bytes read against synthetic histories (default 1M 2M 4M)
+//   --check-journal                  replay keeps the sessions after a damaged record (fails otherwise)
+//   --render <out.wav> [--speed ZEN] [--breath DEEP_CALM] [--transition SOFT] [--minutes 60]
+//                                    offline, faster-than-realtime session render
 
 import javax.sound.sampled.*;
 import javax.swing.*;
@@ -59,13 +83,39 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 import javax.imageio.ImageIO;
 import java.io.File;
 
@@ -105,6 +155,26 @@ public class BugaSphereFivePhaseExperience {
 
     enum RotationMode { CONTINUOUS, KINETIC_STEP, NO_MOTION }
 
+    static double inhaleFracFor(BreathStyle bs) {
+        switch (bs) {
+            case RELAXED:   return 0.60;
+            case DEEP_CALM: return 0.67;
+            case COHERENT:
+            default:        return 0.50;
+        }
+    }
+
+    static int phaseMsFor(SpeedMode sm) {
+        switch (sm) {
+            case BALANCE:    return 4000;
+            case HARMONY:    return 6000;
+            case ZEN:        return 12000;
+            case TRANSCEND:  return 24000;
+            case IGNITE:
+            default:         return 2000;
+        }
+    }
+
     // ---------- Lifetime totals (across all sessions) ----------
     static long lifetimeTotalMs   = 0L;
     static long lifetimeSessions  = 0L;
@@ -141,9 +211,92 @@ public class BugaSphereFivePhaseExperience {
         return dataDir;
     }
 
-    private static void loadTotals() {
-        Path dataDir = getDataDir();
-        Path totalsPath = dataDir.resolve("totals.csv");
+    private static void clearTotals() {
+        setTotals(new long[TOTALS]);
+        nextSessionId = 1L;
+    }
+
+    static final int TOTALS = 10;
+
+    // The lifetime totals in snapshot order: sessions, total, then per breath style and per speed
+    static long[] totalsSnapshot() {
+        return new long[] { lifetimeSessions, lifetimeTotalMs,
+                totalCoherentMs, totalRelaxedMs, totalDeepCalmMs,
+                totalIgniteMs, totalBalanceMs, totalHarmonyMs, totalZenMs, totalTranscendMs };
+    }
+
+    private static void setTotals(long[] t) {
+        lifetimeSessions = t[0];
+        lifetimeTotalMs  = t[1];
+        totalCoherentMs  = t[2];
+        totalRelaxedMs   = t[3];
+        totalDeepCalmMs  = t[4];
+        totalIgniteMs    = t[5];
+        totalBalanceMs   = t[6];
+        totalHarmonyMs   = t[7];
+        totalZenMs       = t[8];
+        totalTranscendMs = t[9];
+    }
+
+    // Journal of finished sessions, read on the EDT and written by writer's thread;
+    // both null if it could not be opened, and then nothing is saved
+    static SessionJournal journal;
+    static SessionWriter writer;
+
+    private static void openJournal() {
+        try {
+            journal = SessionJournal.open(getDataDir());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        SessionCheckpoint checkpoint = null;
+        try {
+            checkpoint = SessionCheckpoint.open(getDataDir());
+            recoverSession(checkpoint);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        writer = new SessionWriter(journal, checkpoint);
+    }
+
+    // A session the last run never got to save (crash, power cut, kill) is saved
+    // now, as it stood at its last checkpoint, before History reads the journal.
+    // One whose id the journal has already given out was saved before the
+    // checkpoint could be cleared, and is not saved again.
+    private static void recoverSession(SessionCheckpoint checkpoint) throws IOException {
+        SessionRecord cut = checkpoint.read();
+        if (cut != null && cut.durationMs > 0 && cut.id >= nextSessionId) {
+            nextSessionId = cut.id + 1;
+            updateTotalsForSession(cut.segments, cut.durationMs);
+            journal.append(cut, totalsSnapshot());
+            journal.commit();
+            System.out.println("Recovered interrupted session: " + sessionInfo(cut));
+        }
+        checkpoint.clear();
+    }
+
+    // Session time as of the last checkpoint handed to the writer; EDT only
+    private static long checkpointedMs = -1L;
+
+    /**
+     * Checkpoints the running session every buga.checkpoint.seconds. A paused
+     * session is written once more and then left alone until it moves again.
+     */
+    private static void startCheckpoints(Panel panel) {
+        int seconds = Integer.getInteger("buga.checkpoint.seconds", 10);
+        if (writer == null || seconds <= 0) return;
+        Timer t = new Timer(seconds * 1000, e -> {
+            SessionRecord rec = panel.sessionSoFar();
+            if (rec == null || rec.durationMs == checkpointedMs) return;
+            checkpointedMs = rec.durationMs;
+            writer.checkpoint(rec);
+        });
+        t.start();
+    }
+
+    // Version 12's totals.csv, read once when its files are moved into the journal
+    private static void loadLegacyTotals(Path totalsPath) {
         if (!Files.exists(totalsPath)) return;
         try {
             List<String> lines = Files.readAllLines(totalsPath, StandardCharsets.UTF_8);
@@ -169,59 +322,7 @@ public class BugaSphereFivePhaseExperience {
                 }
                 break;
             }
-            nextSessionId = lifetimeSessions + 1;
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-    }
-
-    private static void saveTotals() {
-        Path dataDir = getDataDir();
-        Path totalsPath = dataDir.resolve("totals.csv");
-        String header = "total_sessions,total_duration_ms,total_coherent_ms,total_relaxed_ms,total_deep_ms," +
-                "total_ignite_ms,total_balance_ms,total_harmony_ms,total_zen_ms,total_transcend_ms\n";
-        String line   = lifetimeSessions + "," +
-                lifetimeTotalMs + "," +
-                totalCoherentMs + "," +
-                totalRelaxedMs + "," +
-                totalDeepCalmMs + "," +
-                totalIgniteMs + "," +
-                totalBalanceMs + "," +
-                totalHarmonyMs + "," +
-                totalZenMs + "," +
-                totalTranscendMs + "\n";
-        try {
-            Files.write(totalsPath,
-                    (header + line).getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-    }
-
-    // Save LAST session's segments so they can be shown at next launch
-    private static void saveSegments(long sessionId, List<Panel.Segment> segments) {
-        Path dataDir = getDataDir();
-        Path segPath = dataDir.resolve("last_segments.csv");
-        String header = "session_id,index,duration_ms,breath,speed,transition,rotation\n";
-        StringBuilder sb = new StringBuilder();
-        sb.append(header);
-        int index = 1;
-        for (Panel.Segment seg : segments) {
-            sb.append(sessionId).append(",")
-                    .append(index++).append(",")
-                    .append(seg.durationMs).append(",")
-                    .append(seg.breath.name()).append(",")
-                    .append(seg.speed.name()).append(",")
-                    .append(seg.transition.name()).append(",")
-                    .append(seg.rotation.name()).append("\n");
-        }
-        try {
-            Files.write(segPath,
-                    sb.toString().getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            nextSessionId = Math.max(nextSessionId, lifetimeSessions + 1);
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -229,70 +330,34 @@ public class BugaSphereFivePhaseExperience {
 
     // Load last session + its segments into panel on app start
     private static void loadLastSessionFromDisk(Panel panel) {
-        Path dataDir = getDataDir();
-        Path sessionsPath = dataDir.resolve("sessions.csv");
-        if (!Files.exists(sessionsPath)) return;
-
+        if (journal == null) return;
         try {
-            List<String> lines = Files.readAllLines(sessionsPath, StandardCharsets.UTF_8);
-            String lastLine = null;
-            for (String line : lines) {
-                if (line.trim().isEmpty()) continue;
-                if (line.startsWith("session_id")) continue;
-                lastLine = line;
-            }
-            if (lastLine == null) return;
-
-            String[] parts = lastLine.split(",");
-            if (parts.length < 9) return;
-
-            long sessionId   = Long.parseLong(parts[0].trim());
-            String startStr  = parts[1].trim();
-            long durationMs  = Long.parseLong(parts[3].trim());
-            String transitionStr = parts[7].trim();
-            String rotationStr   = parts[8].trim();
+            SessionRecord last = journal.readLast();
+            if (last == null) return;
 
-            LocalDateTime startLdt = LocalDateTime.parse(startStr, FMT_DATETIME);
-            String dow = startLdt.format(FMT_DAY);
-
-            lastSessionInfo = dow + " " + startStr +
-                    " (" + fmtHms(durationMs) + ") — " +
-                    transitionStr + ", " + rotationStr;
+            lastSessionInfo = sessionInfo(last);
 
             // We keep lastSessionDurationMs only for history / segments logic;
             // "Current session total time" will always start at 0 on app launch.
-            panel.lastSessionDurationMs = durationMs;
+            panel.lastSessionDurationMs = last.durationMs;
             panel.sessionActive = false;
 
-            // Load last segments
-            Path segPath = dataDir.resolve("last_segments.csv");
             panel.segments.clear();
-            if (Files.exists(segPath)) {
-                List<String> segLines = Files.readAllLines(segPath, StandardCharsets.UTF_8);
-                for (String ln : segLines) {
-                    if (ln.trim().isEmpty()) continue;
-                    if (ln.startsWith("session_id")) continue;
-                    String[] p = ln.split(",");
-                    if (p.length < 7) continue;
-                    long sid = Long.parseLong(p[0].trim());
-                    if (sid != sessionId) continue;
-
-                    long dur = Long.parseLong(p[2].trim());
-                    BreathStyle b     = BreathStyle.valueOf(p[3].trim());
-                    SpeedMode sm      = SpeedMode.valueOf(p[4].trim());
-                    TransitionMode tm = TransitionMode.valueOf(p[5].trim());
-                    RotationMode rm   = RotationMode.valueOf(p[6].trim());
-
-                    Panel.Segment seg = new Panel.Segment(0L, b, sm, tm, rm);
-                    seg.durationMs = dur;
-                    panel.segments.add(seg);
-                }
-            }
+            panel.segments.addAll(last.segments);
+            panel.segmentsRevision++;
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 
+    // "Sun 2025-11-16 02:34:22 (00:00:12) — Soft, Continuous", as the History window shows it
+    private static String sessionInfo(SessionRecord rec) {
+        LocalDateTime startLdt = LocalDateTime.ofInstant(Instant.ofEpochMilli(rec.startMs), ZoneId.systemDefault());
+        return startLdt.format(FMT_DAY) + " " + startLdt.format(FMT_DATETIME) +
+                " (" + fmtHms(rec.durationMs) + ") — " +
+                Panel.transitionLabel(rec.transition) + ", " + Panel.rotationLabel(rec.rotation);
+    }
+
     private static String fmtHms(long ms) {
         long s = ms / 1000;
         long h = s / 3600;
@@ -305,12 +370,12 @@ public class BugaSphereFivePhaseExperience {
      * UPDATED: use segments so that when you change breath or speed,
      * previous time stays with the old mode and does not get moved.
      */
-    private static void updateTotalsForSession(Panel panel, long durationMs) {
+    private static void updateTotalsForSession(List<Panel.Segment> segments, long durationMs) {
         lifetimeSessions++;
 
         long segmentsSum = 0L;
 
-        for (Panel.Segment seg : panel.segments) {
+        for (Panel.Segment seg : segments) {
             long d = Math.max(0L, seg.durationMs);
             if (d <= 0L) continue;
             segmentsSum += d;
@@ -361,89 +426,808 @@ public class BugaSphereFivePhaseExperience {
 
     private static void logSession(Panel panel, long startMs, long endMs, long durationMs) {
         if (durationMs <= 0) return;
-        Path dataDir = getDataDir();
-        Path sessionsPath = dataDir.resolve("sessions.csv");
+        SessionRecord rec = new SessionRecord(nextSessionId++, startMs, endMs, durationMs,
+                panel.breathStyle, panel.speedMode, panel.transition, panel.rotationMode, panel.segments);
 
-        String header = "session_id,start_time_local,end_time_local,duration_ms,duration_hms," +
-                "breath_style,speed_mode,transition,rotation\n";
+        // NEW: use segments to update totals (no time “moving” across breath changes)
+        updateTotalsForSession(rec.segments, durationMs);
 
-        String breathLabel;
-        switch (panel.breathStyle) {
-            case RELAXED:   breathLabel = "Relaxed 60/40";   break;
-            case DEEP_CALM: breathLabel = "Deep Calm 67/33"; break;
-            case COHERENT:
-            default:        breathLabel = "Coherent 50/50";  break;
+        lastSessionInfo = sessionInfo(rec);
+
+        // Session and segments go down together, with the totals as of them, off the EDT
+        if (writer != null) writer.submit(rec, totalsSnapshot());
+    }
+
+    /* ---------- Session journal ---------- */
+
+    /** A finished session as saved: immutable, with its own copy of the segments. */
+    static final class SessionRecord {
+        final long id;
+        final long startMs, endMs, durationMs;
+        final BreathStyle breath;
+        final SpeedMode speed;
+        final TransitionMode transition;
+        final RotationMode rotation;
+        final List<Panel.Segment> segments;
+
+        SessionRecord(long id, long startMs, long endMs, long durationMs, BreathStyle breath, SpeedMode speed,
+                      TransitionMode transition, RotationMode rotation, List<Panel.Segment> segments) {
+            this.id = id;
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.durationMs = durationMs;
+            this.breath = breath;
+            this.speed = speed;
+            this.transition = transition;
+            this.rotation = rotation;
+            List<Panel.Segment> copy = new ArrayList<>(segments.size());
+            for (Panel.Segment seg : segments) {
+                Panel.Segment c = new Panel.Segment(seg.startFrame, seg.breath, seg.speed, seg.transition, seg.rotation);
+                c.durationMs = seg.durationMs;
+                copy.add(c);
+            }
+            this.segments = Collections.unmodifiableList(copy);
         }
+    }
 
-        String speedLabel;
-        switch (panel.speedMode) {
-            case BALANCE:    speedLabel = "BALANCE (20s loop)";    break;
-            case HARMONY:    speedLabel = "HARMONY (30s loop)";    break;
-            case ZEN:        speedLabel = "ZEN (60s loop)";        break;
-            case TRANSCEND:  speedLabel = "TRANSCEND (120s loop)"; break;
-            case IGNITE:
-            default:         speedLabel = "IGNITE (10s loop)";     break;
+    /**
+     * data/journal.bin: every finished session as fixed RECORD_BYTES records,
+     * its segments first and the session record last, so a session counts only
+     * once its last record is down. Each record carries a CRC32 of the rest of
+     * it. data/totals.snap holds the lifetime totals as of a journal offset,
+     * and is replaced by an atomic rename. Startup reads the snapshot and
+     * replays only the records after it. A damaged record further in is
+     * skipped, and the sessions after it still count; only a torn tail, with
+     * no whole session after it, is cut back to the last whole session. A
+     * session whose own segments are damaged counts its length but not its
+     * modes. Records collect in a buffer until commit(), which
+     * makes them durable with one write and one fsync however many sessions
+     * it holds. The journal is never shortened: it is the session history.
+     * data/sessions.idx maps it: entry k is the id and record offset of the
+     * k-th session, INDEX_BYTES each, so any session and its segments are two
+     * positional reads away. The index is derived data; open() checks its
+     * last entry against the journal, rebuilds it if they disagree and
+     * indexes any sessions it is missing.
+     * Writing (append, commit, reset, close) is for one thread at a time;
+     * reads only use positional I/O and what commit() has published, so the
+     * EDT can read while SessionWriter's thread writes.
+     */
+    static final class SessionJournal implements Closeable {
+        static final int RECORD_BYTES = 48;
+        static final byte SEGMENT = 1, SESSION = 2;
+        // Record layout, big-endian; segments use DURATION and INDEX, sessions all but INDEX
+        private static final int CRC = 0, TYPE = 4, BREATH = 5, SPEED = 6, TRANSITION = 7, ROTATION = 8,
+                ID = 12, START = 20, END = 28, DURATION = 36, COUNT = 44, INDEX = 44;
+
+        // A fresh snapshot once this many sessions have been appended since the last
+        static final int SNAPSHOT_EVERY = 64;
+        private static final int IMPORT_BATCH = 4096;
+        private static final int SNAP_MAGIC = 0x42534E31; // "BSN1"
+        private static final int SNAP_BYTES = 4 + (3 + TOTALS) * 8 + 4;
+        static final int INDEX_BYTES = 16;
+
+        private final Path journalPath, snapPath;
+        private final FileChannel ch, idx;
+        private final CRC32 crc = new CRC32();  // for the writing side; readers bring their own
+        private ByteBuffer pending = ByteBuffer.allocate(RECORD_BYTES * 64);
+        private ByteBuffer pendingIndex = ByteBuffer.allocate(INDEX_BYTES * 16);
+        private volatile long indexed;          // entries in sessions.idx
+        private int pendingSessions;
+        private long pendingLastSession = -1L;
+        private long[] pendingTotals;
+        private long pendingNextId;
+        private volatile long end;              // committed length of journal.bin
+        private volatile long lastSessionOffset = -1L;   // of the last session record, -1 if none
+        // What the snapshot records: the totals and next id as of end, not the live ones the UI shows
+        private long[] committedTotals = new long[TOTALS];
+        private long committedNextId = 1L;
+        private int sinceSnapshot;
+        private long bytesRead;                 // by open() and the reads since, for --bench-startup
+
+        private SessionJournal(Path dir) throws IOException {
+            journalPath = dir.resolve("journal.bin");
+            snapPath = dir.resolve("totals.snap");
+            ch = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel ic = null;
+            try {
+                ic = FileChannel.open(dir.resolve("sessions.idx"), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } finally {
+                if (ic == null) ch.close();
+            }
+            idx = ic;
+        }
+
+        /** Opens the journal in dir and loads the lifetime totals from it. */
+        static SessionJournal open(Path dir) throws IOException {
+            SessionJournal j = new SessionJournal(dir);
+            try {
+                boolean snapshot = j.readSnapshot();
+                if (!snapshot && j.ch.size() == 0L) {
+                    j.idx.truncate(0L);
+                    j.importLegacy(dir);
+                } else {
+                    j.replay();
+                }
+                j.syncIndex();
+            } catch (IOException ex) {
+                j.ch.close();
+                j.idx.close();
+                throw ex;
+            }
+            return j;
+        }
+
+        /** Queues rec for the next commit; totalsAfter are the lifetime totals including it, for the snapshot. */
+        void append(SessionRecord rec, long[] totalsAfter) {
+            int n = rec.segments.size();
+            if (pending.remaining() < (n + 1) * RECORD_BYTES) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                        pending.position() + (n + 1) * RECORD_BYTES));
+                pending.flip();
+                bigger.put(pending);
+                pending = bigger;
+            }
+            for (int i = 0; i < n; i++) {
+                Panel.Segment seg = rec.segments.get(i);
+                putRecord(SEGMENT, rec.id, seg.breath, seg.speed, seg.transition, seg.rotation,
+                        0L, 0L, seg.durationMs, i + 1);
+            }
+            pendingLastSession = end + pending.position();
+            if (!pendingIndex.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(pendingIndex.capacity() * 2);
+                pendingIndex.flip();
+                bigger.put(pendingIndex);
+                pendingIndex = bigger;
+            }
+            pendingIndex.putLong(rec.id).putLong(pendingLastSession);
+            putRecord(SESSION, rec.id, rec.breath, rec.speed, rec.transition, rec.rotation,
+                    rec.startMs, rec.endMs, rec.durationMs, n);
+            pendingSessions++;
+            pendingTotals = totalsAfter;
+            pendingNextId = Math.max(pendingNextId, rec.id + 1);
+        }
+
+        /**
+         * Makes everything appended so far durable. On failure the journal is
+         * left as before it and the sessions stay pending, so the next commit
+         * writes them again; nothing moves forward until the fsync succeeds.
+         */
+        void commit() throws IOException {
+            if (pending.position() == 0) return;
+            pending.flip();
+            try {
+                long at = end;
+                while (pending.hasRemaining()) at += ch.write(pending, at);
+                ch.force(false);
+                end = at;
+            } catch (IOException ex) {
+                pending.position(pending.limit()).limit(pending.capacity());
+                ch.truncate(end);
+                throw ex;
+            }
+            pending.clear();
+            lastSessionOffset = pendingLastSession;
+            sinceSnapshot += pendingSessions;
+            pendingSessions = 0;
+            committedTotals = pendingTotals;
+            committedNextId = Math.max(committedNextId, pendingNextId);
+            // Not forced: a lost entry is found again by the next open()
+            pendingIndex.flip();
+            long at = indexed * INDEX_BYTES;
+            while (pendingIndex.hasRemaining()) at += idx.write(pendingIndex, at);
+            indexed = at / INDEX_BYTES;
+            pendingIndex.clear();
+            if (sinceSnapshot >= SNAPSHOT_EVERY) writeSnapshot();
         }
 
-        String transitionLabel = (panel.transition == TransitionMode.HARD_CUT) ? "Hard" : "Soft";
+        /** The last committed session with its segments, or null if there is none. */
+        SessionRecord readLast() throws IOException {
+            return (lastSessionOffset < 0L) ? null : read(lastSessionOffset);
+        }
 
-        String rotationLabel;
-        switch (panel.rotationMode) {
-            case NO_MOTION:    rotationLabel = "No motion";   break;
-            case KINETIC_STEP: rotationLabel = "Kinetic 72°"; break;
-            case CONTINUOUS:
-            default:           rotationLabel = "Continuous";  break;
+        /** The session whose record starts at offset, read with its segments in one go; null if damaged. */
+        SessionRecord read(long offset) throws IOException {
+            CRC32 crc = new CRC32();
+            ByteBuffer one = ByteBuffer.allocate(RECORD_BYTES);
+            readFully(one, offset);
+            if (!intact(crc, one, 0) || one.get(TYPE) != SESSION) return null;
+            int n = one.getInt(COUNT);
+            long from = offset - (long) n * RECORD_BYTES;
+            if (n < 0 || from < 0L) return null;
+
+            ByteBuffer buf = ByteBuffer.allocate((n + 1) * RECORD_BYTES);
+            readFully(buf, from);
+            List<Panel.Segment> segs = new ArrayList<>(n);
+            for (int at = 0; at < n * RECORD_BYTES; at += RECORD_BYTES) {
+                if (!intact(crc, buf, at) || buf.get(at + TYPE) != SEGMENT) return null;
+                segs.add(segment(buf, at));
+            }
+            return session(one, 0, segs);
         }
 
-        ZoneId zone = ZoneId.systemDefault();
-        LocalDateTime startLdt = LocalDateTime.ofInstant(Instant.ofEpochMilli(startMs), zone);
-        LocalDateTime endLdt   = LocalDateTime.ofInstant(Instant.ofEpochMilli(endMs),   zone);
+        /** Sessions in the journal, oldest first: what readSession(k) can be asked for. */
+        long sessionCount() {
+            return indexed;
+        }
 
-        String startStr = startLdt.format(FMT_DATETIME);
-        String endStr   = endLdt.format(FMT_DATETIME);
-        String dow      = startLdt.format(FMT_DAY);
+        /** The k-th session (0 is the oldest) with its segments, via the index; null if damaged. */
+        SessionRecord readSession(long k) throws IOException {
+            if (k < 0L || k >= indexed) return null;
+            ByteBuffer entry = readEntry(k);
+            long offset = entry.getLong(8);
+            if (offset < 0L || offset + RECORD_BYTES > end) return null;
+            SessionRecord rec = read(offset);
+            return (rec != null && rec.id == entry.getLong(0)) ? rec : null;
+        }
 
-        long sessionId = nextSessionId++;
+        long bytesRead() {
+            return bytesRead;
+        }
 
-        // NEW: use segments to update totals (no time “moving” across breath changes)
-        updateTotalsForSession(panel, durationMs);
-
-        String line = String.format("%d,%s,%s,%d,%s,%s,%s,%s,%s%n",
-                sessionId,
-                startStr,
-                endStr,
-                durationMs,
-                fmtHms(durationMs),
-                breathLabel,
-                speedLabel,
-                transitionLabel,
-                rotationLabel
-        );
+        /** Empties the journal and drops the snapshot ("Reset data"). */
+        void reset() throws IOException {
+            pending.clear();
+            pendingSessions = 0;
+            pendingIndex.clear();
+            ch.truncate(0L);
+            ch.force(true);
+            idx.truncate(0L);
+            indexed = 0L;
+            Files.deleteIfExists(snapPath);
+            end = 0L;
+            lastSessionOffset = -1L;
+            committedTotals = new long[TOTALS];
+            committedNextId = 1L;
+            sinceSnapshot = 0;
+        }
 
-        lastSessionInfo = dow + " " + startStr +
-                " (" + fmtHms(durationMs) + ") — " +
-                transitionLabel + ", " + rotationLabel;
+        @Override
+        public void close() throws IOException {
+            try {
+                commit();
+                if (sinceSnapshot > 0) writeSnapshot();
+            } finally {
+                ch.close();
+                idx.close();
+            }
+        }
 
-        try {
-            if (!Files.exists(sessionsPath)) {
-                Files.write(sessionsPath,
-                        header.getBytes(StandardCharsets.UTF_8),
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.APPEND);
-            }
-            Files.write(sessionsPath,
-                    line.getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.APPEND);
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        // Applies the sessions after the snapshot to the totals, skipping damaged records,
+        // then cuts off a torn tail
+        private void replay() throws IOException {
+            long size = ch.size();
+            long pos = end, good = end;
+            int replayed = 0, skipped = 0, damaged = 0;   // damaged: since the last whole session
+            List<Panel.Segment> segs = new ArrayList<>();
+            long segsId = -1L;                  // the session the segments in segs belong to
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_BYTES * 1024);
+            while (pos + RECORD_BYTES <= size) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), (size - pos) / RECORD_BYTES * RECORD_BYTES));
+                readFully(buf, pos);
+                for (int at = 0; at < buf.limit(); at += RECORD_BYTES, pos += RECORD_BYTES) {
+                    byte type = buf.get(at + TYPE);
+                    if (!intact(crc, buf, at) || (type != SEGMENT && type != SESSION)) {
+                        damaged++;
+                        continue;
+                    }
+                    long id = buf.getLong(at + ID);
+                    if (id != segsId) {
+                        segs.clear();
+                        segsId = id;
+                    }
+                    if (type == SEGMENT) {
+                        segs.add(segment(buf, at));
+                        continue;
+                    }
+                    boolean whole = buf.getInt(at + COUNT) == segs.size();
+                    updateTotalsForSession(whole ? segs : Collections.emptyList(), buf.getLong(at + DURATION));
+                    nextSessionId = Math.max(nextSessionId, id + 1);
+                    lastSessionOffset = pos;
+                    good = pos + RECORD_BYTES;
+                    segs.clear();
+                    segsId = -1L;
+                    replayed++;
+                    skipped += damaged;
+                    damaged = 0;
+                }
+            }
+            if (skipped > 0) {
+                System.out.println("Journal: skipped " + skipped + " damaged record" + (skipped == 1 ? "" : "s")
+                        + "; the sessions after are kept");
+            }
+            if (good < size) {
+                System.out.println("Journal: dropped " + (size - good) + " bytes after the last whole session");
+                ch.truncate(good);
+                ch.force(true);
+            }
+            end = good;
+            committedTotals = totalsSnapshot();
+            committedNextId = nextSessionId;
+            sinceSnapshot = replayed;
+            if (replayed > 0) writeSnapshot();
+        }
+
+        // Trusts the index up to its last entry if that still names a session record, else starts
+        // over; then appends entries for the session records after it
+        private void syncIndex() throws IOException {
+            indexed = idx.size() / INDEX_BYTES;
+            long from = 0L;
+            if (indexed > 0L) {
+                ByteBuffer entry = readEntry(indexed - 1);
+                long offset = entry.getLong(8);
+                boolean ok = offset >= 0L && offset + RECORD_BYTES <= end && offset % RECORD_BYTES == 0;
+                if (ok) {
+                    ByteBuffer one = ByteBuffer.allocate(RECORD_BYTES);
+                    readFully(one, offset);
+                    ok = intact(crc, one, 0) && one.get(TYPE) == SESSION && one.getLong(ID) == entry.getLong(0);
+                }
+                if (ok) {
+                    from = offset + RECORD_BYTES;
+                } else {
+                    System.out.println("Rebuilding " + journalPath.getFileName() + " index");
+                    indexed = 0L;
+                }
+            }
+            idx.truncate(indexed * INDEX_BYTES);
+            if (from >= end) return;
+
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_BYTES * 1024);
+            ByteBuffer out = ByteBuffer.allocate(INDEX_BYTES * 1024);
+            for (long pos = from; pos < end; ) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), end - pos));
+                readFully(buf, pos);
+                out.clear();
+                for (int at = 0; at < buf.limit(); at += RECORD_BYTES, pos += RECORD_BYTES) {
+                    if (buf.get(at + TYPE) == SESSION && intact(crc, buf, at)) {
+                        out.putLong(buf.getLong(at + ID)).putLong(pos);
+                    }
+                }
+                out.flip();
+                long w = indexed * INDEX_BYTES;
+                while (out.hasRemaining()) w += idx.write(out, w);
+                indexed = w / INDEX_BYTES;
+            }
+        }
+
+        private ByteBuffer readEntry(long k) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_BYTES);
+            long at = k * INDEX_BYTES;
+            while (entry.hasRemaining()) {
+                int n = idx.read(entry, at + entry.position());
+                if (n < 0) throw new EOFException("sessions.idx ends at " + (at + entry.position()));
+                bytesRead += n;
+            }
+            return entry;
+        }
+
+        // Version 12 kept sessions.csv, totals.csv and last_segments.csv; they are copied in once and left alone
+        private void importLegacy(Path dir) throws IOException {
+            Path sessionsPath = dir.resolve("sessions.csv");
+            Path totalsPath = dir.resolve("totals.csv");
+            if (!Files.exists(sessionsPath) && !Files.exists(totalsPath)) return;
+
+            long segId = -1L;
+            List<Panel.Segment> lastSegs = new ArrayList<>();
+            Path segPath = dir.resolve("last_segments.csv");
+            if (Files.exists(segPath)) {
+                for (String ln : Files.readAllLines(segPath, StandardCharsets.UTF_8)) {
+                    String[] p = ln.split(",");
+                    if (ln.startsWith("session_id") || p.length < 7) continue;
+                    try {
+                        segId = Long.parseLong(p[0].trim());
+                        Panel.Segment seg = new Panel.Segment(0L, BreathStyle.valueOf(p[3].trim()),
+                                SpeedMode.valueOf(p[4].trim()), TransitionMode.valueOf(p[5].trim()),
+                                RotationMode.valueOf(p[6].trim()));
+                        seg.durationMs = Long.parseLong(p[2].trim());
+                        lastSegs.add(seg);
+                    } catch (IllegalArgumentException ex) {
+                        System.out.println("Skipping segment row: " + ln);
+                    }
+                }
+            }
+
+            // Streamed and committed in batches: years of kiosk history need not fit in memory
+            int imported = 0;
+            if (Files.exists(sessionsPath)) {
+                try (BufferedReader in = Files.newBufferedReader(sessionsPath, StandardCharsets.UTF_8)) {
+                    for (String ln; (ln = in.readLine()) != null; ) {
+                        String[] p = ln.split(",");
+                        if (ln.startsWith("session_id") || p.length < 9) continue;
+                        try {
+                            long id = Long.parseLong(p[0].trim());
+                            ZoneId zone = ZoneId.systemDefault();
+                            long startMs = LocalDateTime.parse(p[1].trim(), FMT_DATETIME).atZone(zone).toInstant().toEpochMilli();
+                            long endMs = LocalDateTime.parse(p[2].trim(), FMT_DATETIME).atZone(zone).toInstant().toEpochMilli();
+                            long durationMs = Long.parseLong(p[3].trim());
+                            String breath = p[5].trim(), rotation = p[8].trim();
+                            SessionRecord rec = new SessionRecord(id, startMs, endMs, durationMs,
+                                    breath.startsWith("Relaxed") ? BreathStyle.RELAXED
+                                            : breath.startsWith("Deep") ? BreathStyle.DEEP_CALM : BreathStyle.COHERENT,
+                                    SpeedMode.valueOf(p[6].trim().split(" ")[0]),
+                                    p[7].trim().equals("Hard") ? TransitionMode.HARD_CUT : TransitionMode.SOFT,
+                                    rotation.startsWith("No") ? RotationMode.NO_MOTION
+                                            : rotation.startsWith("Kinetic") ? RotationMode.KINETIC_STEP : RotationMode.CONTINUOUS,
+                                    (id == segId) ? lastSegs : Collections.emptyList());
+                            updateTotalsForSession(rec.segments, durationMs);
+                            nextSessionId = Math.max(nextSessionId, id + 1);
+                            append(rec, totalsSnapshot());
+                            if (++imported % IMPORT_BATCH == 0) commit();
+                        } catch (RuntimeException ex) {
+                            System.out.println("Skipping session row: " + ln);
+                        }
+                    }
+                }
+            }
+            commit();
+            // The old totals were kept per segment for every session; they win over the sums above
+            loadLegacyTotals(totalsPath);
+            committedTotals = totalsSnapshot();
+            committedNextId = nextSessionId;
+            writeSnapshot();
+            System.out.println("Imported " + imported + " sessions from CSV into " + journalPath.getFileName());
+        }
+
+        private boolean readSnapshot() throws IOException {
+            if (!Files.exists(snapPath)) return false;
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(snapPath));
+            bytesRead += b.capacity();
+            long journalEnd = (b.capacity() == SNAP_BYTES) ? b.getLong(4) : -1L;
+            crc.reset();
+            crc.update(b.array(), 0, Math.max(0, b.capacity() - 4));
+            if (b.capacity() != SNAP_BYTES || b.getInt(0) != SNAP_MAGIC
+                    || b.getInt(SNAP_BYTES - 4) != (int) crc.getValue()
+                    || journalEnd > ch.size() || journalEnd % RECORD_BYTES != 0) {
+                System.out.println("Ignoring " + snapPath.getFileName() + "; replaying the whole journal");
+                return false;
+            }
+            b.position(4 + 8);
+            end               = journalEnd;
+            lastSessionOffset = b.getLong();
+            committedNextId   = b.getLong();
+            for (int i = 0; i < TOTALS; i++) committedTotals[i] = b.getLong();
+            nextSessionId = committedNextId;
+            setTotals(committedTotals);
+            return true;
+        }
+
+        // The totals as of end, written beside the old snapshot and renamed over it
+        private void writeSnapshot() throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(SNAP_BYTES);
+            b.putInt(SNAP_MAGIC).putLong(end).putLong(lastSessionOffset).putLong(committedNextId);
+            for (long t : committedTotals) b.putLong(t);
+            crc.reset();
+            crc.update(b.array(), 0, b.position());
+            b.putInt((int) crc.getValue());
+            b.flip();
+
+            Path tmp = snapPath.resolveSibling(snapPath.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (b.hasRemaining()) out.write(b);
+                out.force(true);
+            }
+            try {
+                Files.move(tmp, snapPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, snapPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            sinceSnapshot = 0;
+        }
+
+        private void putRecord(byte type, long id, BreathStyle b, SpeedMode s, TransitionMode t, RotationMode r,
+                               long startMs, long endMs, long durationMs, int count) {
+            int at = pending.position();
+            pending.putInt(0).put(type)
+                    .put((byte) b.ordinal()).put((byte) s.ordinal())
+                    .put((byte) t.ordinal()).put((byte) r.ordinal())
+                    .put((byte) 0).put((byte) 0).put((byte) 0)
+                    .putLong(id).putLong(startMs).putLong(endMs).putLong(durationMs).putInt(count);
+            crc.reset();
+            crc.update(pending.array(), at + 4, RECORD_BYTES - 4);
+            pending.putInt(at + CRC, (int) crc.getValue());
+        }
+
+        private static boolean intact(CRC32 crc, ByteBuffer buf, int at) {
+            crc.reset();
+            crc.update(buf.array(), at + 4, RECORD_BYTES - 4);
+            return buf.getInt(at + CRC) == (int) crc.getValue();
+        }
+
+        private static Panel.Segment segment(ByteBuffer buf, int at) {
+            Panel.Segment seg = new Panel.Segment(0L,
+                    BreathStyle.values()[buf.get(at + BREATH)], SpeedMode.values()[buf.get(at + SPEED)],
+                    TransitionMode.values()[buf.get(at + TRANSITION)], RotationMode.values()[buf.get(at + ROTATION)]);
+            seg.durationMs = buf.getLong(at + DURATION);
+            return seg;
+        }
+
+        private static SessionRecord session(ByteBuffer buf, int at, List<Panel.Segment> segs) {
+            return new SessionRecord(buf.getLong(at + ID), buf.getLong(at + START), buf.getLong(at + END),
+                    buf.getLong(at + DURATION),
+                    BreathStyle.values()[buf.get(at + BREATH)], SpeedMode.values()[buf.get(at + SPEED)],
+                    TransitionMode.values()[buf.get(at + TRANSITION)], RotationMode.values()[buf.get(at + ROTATION)],
+                    segs);
+        }
+
+        // Fills buf from offset; clear() it first
+        private void readFully(ByteBuffer buf, long offset) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, offset);
+                if (n < 0) throw new EOFException(journalPath + " ends at " + offset);
+                offset += n;
+                bytesRead += n;
+            }
+            buf.flip();
+        }
+    }
+
+    /**
+     * data/session.ckpt: the running session as of the last checkpoint, so a
+     * crash or power cut loses at most one interval. The file is preallocated
+     * and memory-mapped: two SLOT_BYTES slots written in turn, each with a
+     * sequence number and a CRC32, and only the written slot is forced. A slot
+     * torn mid-write fails its CRC and the other one, one checkpoint older,
+     * is used. clear() writes an empty slot once the session is in the
+     * journal. Each checkpoint carries the id the session will be saved
+     * under, so one the journal already holds (the app stopped between the
+     * save and clear()) is not recovered twice. A session with more segments than MAX_SEGMENTS keeps its first
+     * ones and the running one, which takes over the time of those in between
+     * so the segments still add up to the session.
+     */
+    static final class SessionCheckpoint implements Closeable {
+        static final int SLOT_BYTES = 8192;
+        private static final int HEADER_BYTES = 56, SEGMENT_BYTES = 16;
+        static final int MAX_SEGMENTS = (SLOT_BYTES - HEADER_BYTES) / SEGMENT_BYTES;
+        private static final int MAGIC = 0x42434B32; // "BCK2"
+        // Slot layout, big-endian; the CRC covers SEQ up to the end of the segments
+        private static final int S_MAGIC = 0, S_CRC = 4, SEQ = 8, ACTIVE = 16, BREATH = 17, SPEED = 18,
+                TRANSITION = 19, ROTATION = 20, WALL = 24, DURATION = 32, COUNT = 40, ID = 48;
+
+        private final FileChannel ch;
+        private final MappedByteBuffer map;
+        private final CRC32 crc = new CRC32();
+        private long seq;
+
+        private SessionCheckpoint(FileChannel ch) throws IOException {
+            this.ch = ch;
+            map = ch.map(FileChannel.MapMode.READ_WRITE, 0L, 2L * SLOT_BYTES);
+            int latest = latestSlot();
+            seq = (latest < 0) ? 0L : map.getLong(latest + SEQ);
+        }
+
+        static SessionCheckpoint open(Path dir) throws IOException {
+            FileChannel ch = FileChannel.open(dir.resolve("session.ckpt"), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new SessionCheckpoint(ch);
+            } catch (IOException ex) {
+                ch.close();
+                throw ex;
+            }
+        }
+
+        /** The session the last checkpoint holds, ending when it was taken; null if none. */
+        SessionRecord read() {
+            int at = latestSlot();
+            if (at < 0 || map.get(at + ACTIVE) == 0) return null;
+            int n = map.getInt(at + COUNT);
+            List<Panel.Segment> segs = new ArrayList<>(n);
+            for (int i = 0, s = at + HEADER_BYTES; i < n; i++, s += SEGMENT_BYTES) {
+                Panel.Segment seg = new Panel.Segment(0L,
+                        BreathStyle.values()[map.get(s + 8)], SpeedMode.values()[map.get(s + 9)],
+                        TransitionMode.values()[map.get(s + 10)], RotationMode.values()[map.get(s + 11)]);
+                seg.durationMs = map.getLong(s);
+                segs.add(seg);
+            }
+            long wallMs = map.getLong(at + WALL), durationMs = map.getLong(at + DURATION);
+            return new SessionRecord(map.getLong(at + ID), wallMs - durationMs, wallMs, durationMs,
+                    BreathStyle.values()[map.get(at + BREATH)], SpeedMode.values()[map.get(at + SPEED)],
+                    TransitionMode.values()[map.get(at + TRANSITION)], RotationMode.values()[map.get(at + ROTATION)],
+                    segs);
+        }
+
+        /** Records rec (endMs the time taken) as the running session. */
+        void write(SessionRecord rec) {
+            int at = (int) ((seq + 1) & 1L) * SLOT_BYTES;
+            int size = rec.segments.size(), n = Math.min(size, MAX_SEGMENTS);
+            long dropped = 0L;
+            for (int i = n - 1; i < size - 1; i++) dropped += rec.segments.get(i).durationMs;
+            map.put(at + ACTIVE, (byte) 1)
+                    .put(at + BREATH, (byte) rec.breath.ordinal()).put(at + SPEED, (byte) rec.speed.ordinal())
+                    .put(at + TRANSITION, (byte) rec.transition.ordinal())
+                    .put(at + ROTATION, (byte) rec.rotation.ordinal())
+                    .putLong(at + WALL, rec.endMs).putLong(at + DURATION, rec.durationMs)
+                    .putInt(at + COUNT, n).putLong(at + ID, rec.id);
+            for (int i = 0, s = at + HEADER_BYTES; i < n; i++, s += SEGMENT_BYTES) {
+                Panel.Segment seg = rec.segments.get(i < n - 1 ? i : size - 1);
+                map.putLong(s, (i < n - 1) ? seg.durationMs : seg.durationMs + dropped)
+                        .put(s + 8, (byte) seg.breath.ordinal()).put(s + 9, (byte) seg.speed.ordinal())
+                        .put(s + 10, (byte) seg.transition.ordinal()).put(s + 11, (byte) seg.rotation.ordinal());
+            }
+            seal(at, n);
+        }
+
+        /** No session is running: the next launch has nothing to recover. */
+        void clear() {
+            int at = latestSlot();
+            if (at < 0 || map.get(at + ACTIVE) == 0) return;
+            at = (int) ((seq + 1) & 1L) * SLOT_BYTES;
+            map.put(at + ACTIVE, (byte) 0).putInt(at + COUNT, 0);
+            seal(at, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+
+        // Numbers, checksums and forces the slot at; from then on it is the latest
+        private void seal(int at, int n) {
+            map.putLong(at + SEQ, ++seq);
+            int end = at + HEADER_BYTES + n * SEGMENT_BYTES;
+            map.putInt(at + S_CRC, slotCrc(at, end)).putInt(at + S_MAGIC, MAGIC);
+            map.force(at, end - at);
+        }
+
+        // Offset of the intact slot with the higher sequence number, -1 if neither is intact
+        private int latestSlot() {
+            int best = -1;
+            for (int at = 0; at < 2 * SLOT_BYTES; at += SLOT_BYTES) {
+                int n = map.getInt(at + COUNT);
+                if (map.getInt(at + S_MAGIC) != MAGIC || n < 0 || n > MAX_SEGMENTS) continue;
+                if (map.getInt(at + S_CRC) != slotCrc(at, at + HEADER_BYTES + n * SEGMENT_BYTES)) continue;
+                if (best < 0 || map.getLong(at + SEQ) > map.getLong(best + SEQ)) best = at;
+            }
+            return best;
+        }
+
+        private int slotCrc(int from, int to) {
+            crc.reset();
+            for (int i = from + SEQ; i < to; i++) crc.update(map.get(i));
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Saves finished sessions off the EDT. logSession hands over an immutable
+     * SessionRecord with the totals as of it; the one "session-writer" thread
+     * appends each to the journal and commits when it reaches the last one
+     * queued, so a burst goes down in a single write and fsync. The queue is
+     * bounded; should it ever fill, the submitter waits for room rather than
+     * drop a session. Queue depth and write times are kept for the [F3] overlay.
+     * Checkpoints of the running session go through the same queue, so one is
+     * never written after the session it belongs to has been saved and cleared.
+     */
+    static final class SessionWriter {
+        static final int QUEUE_CAPACITY = 64;
+
+        private final SessionJournal journal;
+        private final SessionCheckpoint checkpoint;  // null: no crash recovery
+        private final ThreadPoolExecutor exec;
+        private int batch;                      // appended since the last commit; writer thread only
+        private long batchLastId;               // writer thread only
+        private volatile long saved;
+        private volatile double lastWriteMs = -1.0, maxWriteMs;
+
+        SessionWriter(SessionJournal journal, SessionCheckpoint checkpoint) {
+            this.journal = journal;
+            this.checkpoint = checkpoint;
+            exec = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                    r -> {
+                        Thread t = new Thread(r, "session-writer");
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    (r, ex) -> {
+                        if (ex.isShutdown()) throw new RejectedExecutionException("session writer is closed");
+                        try {
+                            ex.getQueue().put(r);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(ie);
+                        }
+                    });
+        }
+
+        void submit(SessionRecord rec, long[] totalsAfter) {
+            exec.execute(() -> {
+                journal.append(rec, totalsAfter);
+                batch++;
+                batchLastId = rec.id;
+                if (exec.getQueue().isEmpty()) commitBatch();
+            });
+        }
+
+        /**
+         * Writes rec, the running session so far (see Panel.sessionSoFar), to
+         * the checkpoint. While a failed commit is still pending the checkpoint
+         * holds the only other copy of its last session, so it is kept instead.
+         */
+        void checkpoint(SessionRecord rec) {
+            if (checkpoint == null) return;
+            exec.execute(() -> {
+                if (commitBatch()) checkpoint.write(rec);
+            });
+        }
+
+        // Commits what submit has appended; the session is saved, so its checkpoint goes.
+        // False if the commit failed: the batch stays appended for the next try
+        private boolean commitBatch() {
+            if (batch == 0) return true;
+            long t0 = System.nanoTime();
+            try {
+                journal.commit();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return false;
+            }
+            double ms = (System.nanoTime() - t0) / 1e6;
+            lastWriteMs = ms;
+            maxWriteMs = Math.max(maxWriteMs, ms);
+            saved += batch;
+            if (checkpoint != null) checkpoint.clear();
+            System.out.printf("Saved session %d (%d in this write, %.1f ms)%n", batchLastId, batch, ms);
+            batch = 0;
+            return true;
+        }
+
+        /** Empties the journal once what is queued before it is written ("Reset data"). */
+        void reset() {
+            exec.execute(() -> {
+                batch = 0;                      // journal.reset() drops what they appended
+                try {
+                    // Checkpoint first: ids start over, so one left behind would look unsaved
+                    if (checkpoint != null) checkpoint.clear();
+                    journal.reset();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            });
+        }
+
+        /**
+         * Stops taking sessions and waits up to timeoutMs for the queued ones,
+         * then closes the journal and checkpoint. If time runs out both are left
+         * open for the writer; what it had committed is safe, and a session it
+         * had not is recovered from its last checkpoint on the next launch.
+         */
+        void flush(long timeoutMs) {
+            exec.shutdown();
+            try {
+                if (!exec.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    System.out.println("Session writer still busy after " + timeoutMs + " ms; "
+                            + exec.getQueue().size() + " sessions not saved");
+                    return;
+                }
+                journal.close();
+                if (checkpoint != null) checkpoint.close();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        int queueDepth() {
+            return exec.getQueue().size();
+        }
+
+        long saved() {
+            return saved;
         }
 
-        // Save totals + this session's segments for next launch
-        saveTotals();
-        saveSegments(sessionId, panel.segments);
+        double lastWriteMs() {
+            return lastWriteMs;
+        }
 
-        System.out.println("Saved session " + sessionId + ": " + line.trim());
+        double maxWriteMs() {
+            return maxWriteMs;
+        }
     }
 
     /* ---------- Visual panel ---------- */
@@ -451,16 +1235,16 @@ public class BugaSphereFivePhaseExperience {
 
         // Per-session mode segment
         static class Segment {
-            long startMs;
+            long startFrame;   // on the session clock, see clockFrames()
             long durationMs;
             final BreathStyle breath;
             final SpeedMode speed;
             final TransitionMode transition;
             final RotationMode rotation;
 
-            Segment(long startMs, BreathStyle breath, SpeedMode speed,
+            Segment(long startFrame, BreathStyle breath, SpeedMode speed,
                     TransitionMode transition, RotationMode rotation) {
-                this.startMs = startMs;
+                this.startFrame = startFrame;
                 this.breath = breath;
                 this.speed = speed;
                 this.transition = transition;
@@ -490,6 +1274,10 @@ public class BugaSphereFivePhaseExperience {
         private long pausedAccumNanos = 0L;
         private long pausedAtNanos = 0L;
         private volatile boolean pausedVisual = true;
+        // Nobody can see the panel (window iconified or hidden): no frames are drawn, audio carries on
+        private volatile boolean renderSuspended = false;
+        // An ActiveRenderer draws the frames and anim stays stopped; EDT only
+        private boolean activelyRendered = false;
 
         double currentAngleDeg = 0.0;
         private double rotStartDeg = 0.0;
@@ -499,20 +1287,80 @@ public class BugaSphereFivePhaseExperience {
 
         final AtomicBoolean resetRequested = new AtomicBoolean(false);
 
+        // Audio clock: while the phase being heard belongs to the current mode
+        // epoch, phase, colour fades and INHALE/EXHALE follow the device clock.
+        volatile TonePlayer audio;
+        volatile int modeEpoch = 0;
+        private final PhasePosition clockPos = new PhasePosition();
+        private long shownPhaseSeq = -1L;
+        private volatile boolean audioSynced = false;
+
+        // Key press to audible change: set by requestAudioReset, read back off the audio clock
+        private volatile long modeChangeNanos = 0L;
+        volatile double lastSwitchLatencyMs = -1.0;
+
         private static final Color PENTA_EDGE   = new Color(0x5A5A5A);
         private static final Color NEEDLE_COLOR = new Color(0x5A5A5A);
 
         private long phaseStartNanos = 0L;
 
+        // Dirty regions: paint records where the moving parts are, tick() repaints only those that changed
+        private static final int FRAME_MS = 16;
+        private final Rectangle pentagonBounds = new Rectangle();
+        private final Rectangle wordBounds = new Rectangle();
+        private final Rectangle countdownBounds = new Rectangle();
+        private final Rectangle settingsBounds = new Rectangle();
+        private final Rectangle bigTimerBounds = new Rectangle();
+        private final Rectangle historyBounds = new Rectangle();
+        private final Rectangle perfBounds = new Rectangle();
+        private final Rectangle clipRect = new Rectangle();
+        private long tickedScene = Long.MIN_VALUE;
+        private int tickedRgb, tickedCountdown;
+        private long tickedSecond;
+        private boolean tickedInhale, tickedRotating;
+
+        // Set while the active renderer paints a frame: when it will be shown, and on which device
+        private long frameNanos = 0L;
+        private GraphicsConfiguration frameConfig;
+
+        // Repaint rate and share of the panel repainted, per second, for the [F3] overlay
+        private long repaintWindowStartN = System.nanoTime();
+        private long repaintPixels, repaintFrames;
+        private double repaintHz, repaintShare;
+
+        // Pentagon layers come from PentagonLayer's caches unless -Dbuga.render.cache=false
+        private final PentagonLayer pentagon = new PentagonLayer();
+        final QualityGovernor quality = QualityGovernor.fromSystemProperty();
+
+        // Background, pentagon and needle are drawn at renderScale (or the level's cap) and upscaled
+        volatile float renderScale = renderScaleFromSystemProperty();
+        private BufferedImage sceneBuf;
+        private Graphics2D sceneG;
+        private float sceneScale;
+        private final AffineTransform sceneTransform = new AffineTransform();
+        private static final AffineTransform IDENTITY = new AffineTransform();
+        volatile boolean renderCache = !"false".equalsIgnoreCase(System.getProperty("buga.render.cache", "true").trim());
+
+        // [F3] frame-time overlay: paint and pentagon times over the last PERF_FRAMES frames
+        volatile boolean showPerf = false;
+        private static final int PERF_FRAMES = 120;
+        private final long[] paintNanos = new long[PERF_FRAMES];
+        private final long[] pentagonNanos = new long[PERF_FRAMES];
+        private int perfCount = 0;
+
         boolean sessionActive = false;
-        long sessionStartMs = 0L;
+        long sessionStartMs = 0L;          // wall clock, for the session log only
+        long sessionStartFrame = 0L;       // session clock, see clockFrames()
         long lastSessionDurationMs = 0L;   // used only for history/segments gating
 
-        // NEW: wall-clock pause tracking for timers
-        long pauseStartMs = 0L;
-
         // Segments for last session (mode changes)
         final List<Segment> segments = new ArrayList<>();
+        int segmentsRevision = 0;          // bumped on every change to segments, keys the History caches
+
+        // A saved session picked with [PgUp]/[PgDn] for the History window; -1 shows the last one as before
+        private long shownIndex = -1L;
+        private SessionRecord shownSession;
+        private String shownInfo = "", shownLabel = "";
 
         // Clickable area for "Reset data" inside History window
         private Rectangle resetDataBounds = null;
@@ -522,9 +1370,64 @@ public class BugaSphereFivePhaseExperience {
         private Rectangle resetYesBounds = null;
         private Rectangle resetNoBounds  = null;
 
+        // ---- Paint resources, kept so that a frame allocates nothing (see --check-alloc) ----
+        private static final Color CHIP_BG       = new Color(0, 0, 0, 90);
+        private static final Color PILL_BG       = new Color(0, 0, 0, 130);
+        private static final Color PILL_EDGE     = new Color(255, 255, 255, 180);
+        private static final Color DIALOG_BG     = new Color(0, 0, 0, 180);
+        private static final Color YES_BG        = new Color(30, 160, 120, 220);
+        private static final Color NO_BG         = new Color(120, 120, 120, 220);
+        private static final Color WORD_ON_LIGHT = new Color(0, 0, 0, 120);
+        private static final Color WORD_ON_DARK  = new Color(255, 255, 255, 160);
+        private static final Color PERF_BG       = new Color(0, 0, 0, 110);
+        private static final BasicStroke NEEDLE_STROKE = new BasicStroke(3.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        private static final String HELP_TEXT =
+                "[F11 / Alt+Enter] Full Screen   [SPACE] Start / Pause   [H] HUD   " +
+                        "[Q/W/E] Breath   [1–5] Speed   [T/Y] Transition   [7/8/0] Rotation   [PgUp/PgDn] History   [Esc] Exit";
+        private static final String[] TONE_TEXT = new String[PHASES.length];
+        private static final String[] LOOP_TEXT = new String[SpeedMode.values().length];
+        static {
+            for (int i = 0; i < PHASES.length; i++) {
+                TONE_TEXT[i] = "Tone: " + (int) PHASES[i].hz + " Hz (" + hzToNoteName(PHASES[i].hz) + ")";
+            }
+            for (SpeedMode sm : SpeedMode.values()) {
+                LOOP_TEXT[sm.ordinal()] = (phaseMsFor(sm) * PHASES.length) / 1000 + " s (5 phases)";
+            }
+        }
+
+        // Fonts and metrics derived from the panel font; rebuilt when it changes (breath word: when the width does)
+        private Font fontBase;
+        private Font plain13, plain14, bold13, bold14, bold15, bold16, bold20, bold24, bold28, bold30, bold36, breathFont;
+        private FontMetrics fmPlain13, fmPlain14, fmBold13, fmBold14, fmBold15, fmBold30, fmBold36, fmBreath;
+        private int breathFontWidth = -1;
+
+        // Text and boxes go through sprites; times and the countdown are written into numChars
+        private final HudSprites hud = new HudSprites();
+        private final char[] numChars = new char[24];
+        private final Line2D.Double needleLine = new Line2D.Double();
+        private final Ellipse2D.Double needleDot = new Ellipse2D.Double();
+        private final Rectangle resetDataRect = new Rectangle();
+        private final Rectangle resetYesRect = new Rectangle();
+        private final Rectangle resetNoRect = new Rectangle();
+
+        // The settings and History windows are cached images; per frame only their live values are drawn.
+        // One of each per text colour (white, black), so phase colours crossing the contrast line rebuild nothing.
+        private final HudLayer[] settingsLayers = { new HudLayer(), new HudLayer() };
+        private final HudLayer[] historyLayers = { new HudLayer(), new HudLayer() };
+        private int segTimeX, segTimeY, sessionTimeX, sessionTimeY;
+        private final int[] historyValueX = new int[HISTORY_VALUES];
+        private final int[] historyValueY = new int[HISTORY_VALUES];
+        private static final int HISTORY_VALUES = 9;   // total time, 3 breath totals, 5 speed totals
+
+        // Durations of the closed segments per breath style and speed, summed once per segmentsRevision
+        private final long[] closedBreathMs = new long[BreathStyle.values().length];
+        private final long[] closedSpeedMs = new long[SpeedMode.values().length];
+        private int closedSumsRevision = -1;
+
         Panel() {
             setBackground(new Color(20, 20, 20));
             setDoubleBuffered(true);
+            anim.setRepeats(false);
             updateTiming();
         }
 
@@ -534,14 +1437,7 @@ public class BugaSphereFivePhaseExperience {
         }
 
         int perPhaseMs() {
-            switch (speedMode) {
-                case BALANCE:    return 4000;
-                case HARMONY:    return 6000;
-                case ZEN:        return 12000;
-                case TRANSCEND:  return 24000;
-                case IGNITE:
-                default:         return 2000;
-            }
+            return phaseMsFor(speedMode);
         }
 
         int loopSeconds() {
@@ -555,25 +1451,15 @@ public class BugaSphereFivePhaseExperience {
         void updateTiming() {
             phaseMsCurrent = perPhaseMs();
 
-            switch (breathStyle) {
-                case RELAXED:
-                    inhaleFrac = 0.60;
-                    break;
-                case DEEP_CALM:
-                    inhaleFrac = 0.67;
-                    break;
-                case COHERENT:
-                default:
-                    inhaleFrac = 0.50;
-                    break;
-            }
+            inhaleFrac = inhaleFracFor(breathStyle);
 
             inhaleMsCurrent = (int) Math.round(phaseMsCurrent * inhaleFrac);
             inhaleMsCurrent = Math.max(1, Math.min(phaseMsCurrent - 1, inhaleMsCurrent));
             exhaleMsCurrent = phaseMsCurrent - inhaleMsCurrent;
         }
 
-        final Timer anim = new Timer(16, e -> repaint());
+        // Fires tick(), which re-arms it: every frame while something moves, else at the next change
+        final Timer anim = new Timer(FRAME_MS, e -> tick());
 
         void setPausedVisual(boolean paused) {
             if (this.pausedVisual == paused) return;
@@ -586,36 +1472,66 @@ public class BugaSphereFivePhaseExperience {
                 long delta = now - pausedAtNanos;
                 pausedAccumNanos += delta;
                 if (phaseStartNanos != 0) phaseStartNanos += delta;
-                if (!anim.isRunning()) anim.start();
+                // A change made while paused is heard from the resume on
+                if (modeChangeNanos != 0L) modeChangeNanos = Math.max(modeChangeNanos, now);
+                wake();
             }
             repaint();
         }
 
-        // Aligns session & segment timers with pause/resume
-        void handlePauseResume(boolean nowPaused) {
-            if (nowPaused) {
-                // Just paused
-                pauseStartMs = System.currentTimeMillis();
-            } else {
-                // Just resumed
-                if (pauseStartMs != 0L && sessionActive) {
-                    long now = System.currentTimeMillis();
-                    long delta = Math.max(0L, now - pauseStartMs);
-
-                    // Shift session start so paused period is not counted
-                    sessionStartMs += delta;
-
-                    // Shift active segments (durationMs == 0 means still open)
-                    for (Segment seg : segments) {
-                        if (seg.durationMs == 0L) {
-                            seg.startMs += delta;
-                        }
-                    }
-                }
-                pauseStartMs = 0L;
+        /**
+         * Stops or restarts drawing while the window cannot be seen. Phase and
+         * timers keep following the audio clock, so the first frame after a
+         * restore is already current; it repaints everything.
+         */
+        void setRenderSuspended(boolean suspended) {
+            if (renderSuspended == suspended) return;
+            renderSuspended = suspended;
+            if (suspended) {
+                anim.stop();
+            } else {
+                tickedScene = Long.MIN_VALUE;
+                wake();
+                repaint();
+            }
+        }
+
+        /**
+         * An ActiveRenderer takes over drawing: it paints every frame itself, so
+         * anim is stopped until it hands the panel back.
+         */
+        void setActivelyRendered(boolean active) {
+            if (activelyRendered == active) return;
+            activelyRendered = active;
+            if (active) {
+                anim.stop();
+            } else {
+                tickedScene = Long.MIN_VALUE;
+                wake();
             }
         }
 
+        /** Brings the next tick forward to now, for changes made outside it (modes, phase starts, resume). */
+        void wake() {
+            if (pausedVisual || renderSuspended || activelyRendered) return;
+            anim.setInitialDelay(0);
+            anim.restart();
+        }
+
+        /**
+         * The session clock: frames of audio played so far. It is the same
+         * monotonic counter that places phase boundaries, it stands still while
+         * paused (the device is stopped), and session and segment times are
+         * differences of it, so they cannot drift from what was heard.
+         * Without an audio player it counts real time minus paused time.
+         */
+        long clockFrames() {
+            TonePlayer tp = audio;
+            if (tp != null) return tp.sink.framePosition();
+            long now = pausedVisual ? pausedAtNanos : System.nanoTime();
+            return (long) ((now - appStartNanos - pausedAccumNanos) * (TonePlayer.SR / 1e9));
+        }
+
         void resetToTop() {
             updateTiming();
             phaseIndex = 0;
@@ -631,10 +1547,23 @@ public class BugaSphereFivePhaseExperience {
 
             phaseStartNanos = pausedVisual ? pausedAtNanos : System.nanoTime();
 
-            if (!anim.isRunning() && !pausedVisual) anim.start();
+            wake();
         }
 
+        /** Ask the audio loop to restart from Origin; phases started before this no longer drive visuals. */
+        void requestAudioReset() {
+            modeChangeNanos = System.nanoTime();
+            modeEpoch++;
+            audioSynced = false;
+            resetRequested.set(true);
+        }
+
+        /**
+         * Fallback for when there is no audio clock yet (or the heard phase is
+         * from before a mode change): follow the phase as it is synthesised.
+         */
         void setPhaseAtAudioStart(Phase p, Color nextColor, int idx) {
+            if (audioSynced) return;
             updateTiming();
 
             cur = p;
@@ -653,20 +1582,69 @@ public class BugaSphereFivePhaseExperience {
             fadeFrom = p.color;
             fadeTo   = nextColor;
 
-            if (!pausedVisual && !anim.isRunning()) anim.start();
+            wake();
+        }
+
+        /**
+         * Reads the phase position the listener is hearing and makes it the
+         * visual clock: switches phase when the device passes a phase start and
+         * re-anchors phaseStartNanos so every fade and flip is frame-accurate.
+         */
+        private void syncToAudioClock(long nowN) {
+            TonePlayer tp = audio;
+            audioSynced = tp != null
+                    && tp.currentPhasePosition(clockPos)
+                    && clockPos.epoch == modeEpoch;
+            if (!audioSynced) return;
+
+            long heardFromN = nowN - TonePlayer.framesToNanos(clockPos.frameInPhase);
+            long changedN = modeChangeNanos;
+            if (changedN != 0L) {
+                modeChangeNanos = 0L;
+                if (heardFromN >= changedN) {
+                    lastSwitchLatencyMs = (heardFromN - changedN) / 1e6;
+                }
+            }
+
+            if (clockPos.seq != shownPhaseSeq) {
+                shownPhaseSeq = clockPos.seq;
+                showPhase(clockPos.idx);
+            }
+            phaseStartNanos = heardFromN;
+        }
+
+        // Same as setPhaseAtAudioStart, but the rotation base comes from the
+        // phase index: the loop turns 72° per phase from Origin after a reset.
+        private void showPhase(int idx) {
+            updateTiming();
+            cur = PHASES[idx];
+            phaseIndex = idx;
+
+            if (rotationMode == RotationMode.NO_MOTION) {
+                rotStartDeg  = currentAngleDeg % 360.0;
+                rotTargetDeg = currentAngleDeg % 360.0;
+            } else {
+                rotStartDeg  = (72.0 * idx) % 360.0;
+                rotTargetDeg = (rotStartDeg + 72.0) % 360.0;
+            }
+
+            fadeFrom = cur.color;
+            fadeTo   = PHASES[(idx + 1) % PHASES.length].color;
         }
 
         // ---- Segment helpers ----
-        private void startNewSegment(long startMs) {
-            Segment seg = new Segment(startMs, breathStyle, speedMode, transition, rotationMode);
+        private void startNewSegment(long startFrame) {
+            Segment seg = new Segment(startFrame, breathStyle, speedMode, transition, rotationMode);
             segments.add(seg);
+            segmentsRevision++;
         }
 
-        private void closeCurrentSegment(long nowMs) {
+        private void closeCurrentSegment(long nowFrame) {
             if (segments.isEmpty()) return;
             Segment last = segments.get(segments.size() - 1);
             if (last.durationMs == 0) {
-                last.durationMs = Math.max(0L, nowMs - last.startMs);
+                last.durationMs = TonePlayer.framesToMillis(Math.max(0L, nowFrame - last.startFrame));
+                segmentsRevision++;
             }
         }
 
@@ -676,8 +1654,8 @@ public class BugaSphereFivePhaseExperience {
          * resets the visual phase to the first phase.
          */
         private void onTopModeChanged() {
-            // Audio side: restart phase index on next cycle
-            resetRequested.set(true);
+            // Audio side: cut the current phase at the next block and restart from Origin
+            requestAudioReset();
             // Visual side: snap back to Origin right away
             resetToTop();
         }
@@ -685,7 +1663,7 @@ public class BugaSphereFivePhaseExperience {
         void setBreathStyle(BreathStyle style) {
             if (breathStyle == style) return;
             if (sessionActive) {
-                long now = System.currentTimeMillis();
+                long now = clockFrames();
                 closeCurrentSegment(now);
                 breathStyle = style;
                 startNewSegment(now);
@@ -699,7 +1677,7 @@ public class BugaSphereFivePhaseExperience {
         void setTransitionMode(TransitionMode tm) {
             if (transition == tm) return;
             if (sessionActive) {
-                long now = System.currentTimeMillis();
+                long now = clockFrames();
                 closeCurrentSegment(now);
                 transition = tm;
                 startNewSegment(now);
@@ -713,7 +1691,7 @@ public class BugaSphereFivePhaseExperience {
         void setSpeedMode(SpeedMode sm) {
             if (speedMode == sm) return;
             if (sessionActive) {
-                long now = System.currentTimeMillis();
+                long now = clockFrames();
                 closeCurrentSegment(now);
                 speedMode = sm;
                 startNewSegment(now);
@@ -727,7 +1705,7 @@ public class BugaSphereFivePhaseExperience {
         void setRotationMode(RotationMode rm) {
             if (rotationMode == rm) return;
             if (sessionActive) {
-                long now = System.currentTimeMillis();
+                long now = clockFrames();
                 closeCurrentSegment(now);
                 rotationMode = rm;
                 startNewSegment(now);
@@ -739,6 +1717,9 @@ public class BugaSphereFivePhaseExperience {
         }
 
         long loopMillis() {
+            if (audioSynced) {
+                return (long) phaseIndex * phaseMsCurrent + TonePlayer.framesToMillis(clockPos.frameInPhase);
+            }
             long now = pausedVisual ? pausedAtNanos : System.nanoTime();
             long eff = now - appStartNanos - pausedAccumNanos;
             long perLoop = loopPeriodNanos();
@@ -753,7 +1734,7 @@ public class BugaSphereFivePhaseExperience {
          */
         long currentSessionMs() {
             if (sessionActive) {
-                return Math.max(0L, System.currentTimeMillis() - sessionStartMs);
+                return TonePlayer.framesToMillis(Math.max(0L, clockFrames() - sessionStartFrame));
             } else {
                 return 0L;
             }
@@ -766,13 +1747,12 @@ public class BugaSphereFivePhaseExperience {
         long currentSegmentMs() {
             if (!sessionActive || segments.isEmpty()) return 0L;
             Segment last = segments.get(segments.size() - 1);
-            long nowMs = System.currentTimeMillis();
             if (last.durationMs > 0) {
                 // Normally durationMs is only set when segment closes,
                 // but keep this branch for safety.
                 return Math.max(0L, last.durationMs);
             }
-            return Math.max(0L, nowMs - last.startMs);
+            return TonePlayer.framesToMillis(Math.max(0L, clockFrames() - last.startFrame));
         }
 
         long currentLifetimeMs() {
@@ -786,44 +1766,97 @@ public class BugaSphereFivePhaseExperience {
         void startSessionTimer() {
             sessionActive = true;
             sessionStartMs = System.currentTimeMillis();
+            sessionStartFrame = clockFrames();
             lastSessionDurationMs = 0L;
+            clearShownSession();
             segments.clear();
-            startNewSegment(sessionStartMs);
-            pauseStartMs = 0L;
+            segmentsRevision++;
+            startNewSegment(sessionStartFrame);
+        }
+
+        /**
+         * Steps the History window to an older (-1) or newer (+1) saved session,
+         * read through the journal's index. Stepping past the newest returns to
+         * the usual last-session view. Not while a session runs.
+         */
+        void showPastSession(int step) {
+            if (sessionActive || journal == null) return;
+            long count = journal.sessionCount();
+            if (count == 0L) return;
+            long k = Math.max(0L, Math.min(count - 1, (shownIndex < 0L ? count - 1 : shownIndex) + step));
+            if (k == count - 1) {
+                clearShownSession();
+            } else {
+                try {
+                    SessionRecord rec = journal.readSession(k);
+                    if (rec == null) return;
+                    shownSession = rec;
+                    shownIndex = k;
+                    shownInfo = sessionInfo(rec);
+                    shownLabel = "Session " + (k + 1) + " of " + count + ":";
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    return;
+                }
+            }
+            repaint();
+        }
+
+        private void clearShownSession() {
+            shownIndex = -1L;
+            shownSession = null;
+        }
+
+        // The segments the History window lists: the picked session's, else the last session's
+        private List<Segment> historySegments() {
+            return (shownSession != null) ? shownSession.segments : segments;
+        }
+
+        /**
+         * The running session as it would be saved if stopped now: the open
+         * segment gets its length so far, endMs is the wall clock, and the id
+         * is the one logSession will give it. Null when no session runs. For
+         * checkpoints.
+         */
+        SessionRecord sessionSoFar() {
+            if (!sessionActive) return null;
+            long now = clockFrames();
+            long dur = TonePlayer.framesToMillis(Math.max(0L, now - sessionStartFrame));
+            long endMs = System.currentTimeMillis();
+            SessionRecord rec = new SessionRecord(nextSessionId, endMs - dur, endMs, dur,
+                    breathStyle, speedMode, transition, rotationMode, segments);
+            if (!rec.segments.isEmpty()) {
+                Segment open = rec.segments.get(rec.segments.size() - 1);
+                open.durationMs = TonePlayer.framesToMillis(Math.max(0L, now - open.startFrame));
+            }
+            return rec;
         }
 
         long stopSessionTimer() {
             if (!sessionActive) return 0L;
-            long now = System.currentTimeMillis();
-            long dur = Math.max(0L, now - sessionStartMs);
+            long now = clockFrames();
+            long dur = TonePlayer.framesToMillis(Math.max(0L, now - sessionStartFrame));
             closeCurrentSegment(now);
+            // Logged as ending now and lasting dur, as before (paused time excluded)
+            sessionStartMs = System.currentTimeMillis() - dur;
             lastSessionDurationMs = dur;
             sessionActive = false;
-            pauseStartMs = 0L;
             return dur;
         }
 
         // Called from "Reset data" logic
         void resetAllData() {
-            lifetimeSessions  = 0L;
-            lifetimeTotalMs   = 0L;
-            totalCoherentMs   = 0L;
-            totalRelaxedMs    = 0L;
-            totalDeepCalmMs   = 0L;
-            totalIgniteMs     = 0L;
-            totalBalanceMs    = 0L;
-            totalHarmonyMs    = 0L;
-            totalZenMs        = 0L;
-            totalTranscendMs  = 0L;
+            clearTotals();
             lastSessionInfo   = "";
-            nextSessionId     = 1L;
 
+            clearShownSession();
             segments.clear();
+            segmentsRevision++;
             lastSessionDurationMs = 0L;
             sessionActive = false;
-            pauseStartMs = 0L;
 
             Path dataDir = getDataDir();
+            if (writer != null) writer.reset();
             try {
                 Files.deleteIfExists(dataDir.resolve("sessions.csv"));
                 Files.deleteIfExists(dataDir.resolve("totals.csv"));
@@ -840,6 +1873,86 @@ public class BugaSphereFivePhaseExperience {
             return String.format("%02d:%02d:%02d", h, m, s);
         }
 
+        /** fmtMillis into numChars; returns the length. */
+        private int millisChars(long ms) {
+            long s = ms / 1000, m = s / 60, h = m / 60;
+            int n = digitChars(h, 2, 0);
+            numChars[n++] = ':';
+            n = digitChars(m % 60, 2, n);
+            numChars[n++] = ':';
+            return digitChars(s % 60, 2, n);
+        }
+
+        /** Writes v (>= 0) zero-padded to minDigits into numChars at pos; returns the new end. */
+        private int digitChars(long v, int minDigits, int pos) {
+            int digits = 1;
+            for (long t = v / 10; t > 0; t /= 10) digits++;
+            digits = Math.max(digits, minDigits);
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                numChars[i] = (char) ('0' + v % 10);
+                v /= 10;
+            }
+            return pos + digits;
+        }
+
+        private void ensureFonts(Graphics2D g2) {
+            Font base = getFont();
+            if (base != fontBase) {
+                fontBase = base;
+                plain13 = base.deriveFont(Font.PLAIN, 13f);
+                plain14 = base.deriveFont(Font.PLAIN, 14f);
+                bold13  = base.deriveFont(Font.BOLD, 13f);
+                bold14  = base.deriveFont(Font.BOLD, 14f);
+                bold15  = base.deriveFont(Font.BOLD, 15f);
+                bold16  = base.deriveFont(Font.BOLD, 16f);
+                bold20  = base.deriveFont(Font.BOLD, 20f);
+                bold24  = base.deriveFont(Font.BOLD, 24f);
+                bold28  = base.deriveFont(Font.BOLD, 28f);
+                bold30  = base.deriveFont(Font.BOLD, 30f);
+                bold36  = base.deriveFont(Font.BOLD, 36f);
+                fmPlain13 = g2.getFontMetrics(plain13);
+                fmPlain14 = g2.getFontMetrics(plain14);
+                fmBold13  = g2.getFontMetrics(bold13);
+                fmBold14  = g2.getFontMetrics(bold14);
+                fmBold15  = g2.getFontMetrics(bold15);
+                fmBold30  = g2.getFontMetrics(bold30);
+                fmBold36  = g2.getFontMetrics(bold36);
+                breathFontWidth = -1;
+            }
+            if (getWidth() != breathFontWidth) {
+                breathFontWidth = getWidth();
+                breathFont = base.deriveFont(Font.BOLD, Math.max(40f, getWidth() * 0.06f));
+                fmBreath = g2.getFontMetrics(breathFont);
+            }
+        }
+
+        private void fillRound(Graphics2D g2, int x, int y, int w, int h, int arc) {
+            hud.box(g2, x, y, w, h, arc, true);
+        }
+
+        private void drawRound(Graphics2D g2, int x, int y, int w, int h, int arc) {
+            hud.box(g2, x, y, w, h, arc, false);
+        }
+
+        static String toneText(Phase p) {
+            for (int i = 0; i < PHASES.length; i++) {
+                if (PHASES[i] == p) return TONE_TEXT[i];
+            }
+            return "Tone: " + (int) p.hz + " Hz (" + hzToNoteName(p.hz) + ")";
+        }
+
+        /** Draws a bold label followed by a plain value, as the settings and History rows do. */
+        private void drawRow(Graphics2D g2, String lbl, String value, int x, int y) {
+            hud.text(g2, lbl, bold14, x, y);
+            hud.text(g2, value, plain14, x + fmBold14.stringWidth(lbl), y);
+        }
+
+        /** Same, with the value taken from numChars. */
+        private void drawRowChars(Graphics2D g2, String lbl, int len, int x, int y) {
+            hud.text(g2, lbl, bold14, x, y);
+            hud.chars(g2, numChars, len, plain14, x + fmBold14.stringWidth(lbl), y);
+        }
+
         static double smooth(double t) {
             t = Math.max(0, Math.min(1, t));
             return t * t * (3 - 2 * t);
@@ -888,42 +2001,164 @@ public class BugaSphereFivePhaseExperience {
             return new Dimension(1000, 640);
         }
 
+        // ---- Frame state, shared by paintComponent and tick ----
+
+        private long phaseElapsedMs(long nowN) {
+            return (phaseStartNanos == 0L) ? 0L : Math.max(0L, (nowN - phaseStartNanos) / 1_000_000L);
+        }
+
+        private Color phaseColour(long phaseElapsedMs) {
+            if (transition != TransitionMode.SOFT) return cur.color;
+            int fadeStart = softFadeStartMs();
+            double fadeT;
+            if (phaseElapsedMs <= fadeStart) {
+                fadeT = 0.0;
+            } else {
+                double raw = (phaseElapsedMs - fadeStart) / (double) Math.max(1, phaseMsCurrent - fadeStart);
+                fadeT = Math.max(0.0, Math.min(1.0, raw));
+                fadeT = smooth(fadeT);
+            }
+            return FadeTable.colour(phaseIndex, fadeT);
+        }
+
+        private int softFadeStartMs() {
+            int fadeLen = Math.min(600, phaseMsCurrent / 5);
+            return Math.max(0, phaseMsCurrent - fadeLen);
+        }
+
+        /** Whole seconds left in the current inhale or exhale, as the countdown chip shows them. */
+        private int countdownSeconds(long phaseElapsedMs, boolean inInhale) {
+            int segmentMs = inInhale ? inhaleMsCurrent : exhaleMsCurrent;
+            int segPosMs  = inInhale
+                    ? (int) Math.min(segmentMs, Math.max(0, phaseElapsedMs))
+                    : (int) Math.min(segmentMs, Math.max(0, phaseElapsedMs - inhaleMsCurrent));
+            return (int) Math.ceil((segmentMs - segPosMs) / 1000.0);
+        }
+
+        private boolean rotating(long nowN) {
+            if (phaseStartNanos == 0L) return false;
+            switch (rotationMode) {
+                case CONTINUOUS:   return true;
+                case KINETIC_STEP: return nowN - phaseStartNanos < (ROTATE_ANIM_MS + FRAME_MS) * 1_000_000L;
+                case NO_MOTION:
+                default:           return false;
+            }
+        }
+
+        // Everything that changes the picture outside the regions tick() tracks
+        private long sceneKey() {
+            long k = phaseIndex;
+            k = k * 31 + modeEpoch;
+            k = k * 31 + segmentsRevision;
+            k = k * 31 + getWidth();
+            k = k * 31 + getHeight();
+            k = k * 31 + quality.level().ordinal();
+            return k << 4 | (showHud ? 8 : 0) | (showHistory ? 4 : 0)
+                    | (sessionActive ? 2 : 0) | (resetConfirmVisible ? 1 : 0);
+        }
+
+        /**
+         * One animation step: compares the frame about to be shown with the
+         * last one and repaints only what differs: everything when the phase,
+         * colour or layout changed, otherwise the pentagon while it turns and
+         * the breath word, countdown and timers when their text changes. Then
+         * re-arms anim for the next frame, or, when nothing moves, for the next
+         * inhale/exhale flip, countdown second, fade start or phase end.
+         */
+        void tick() {
+            if (pausedVisual || renderSuspended || activelyRendered) return;
+            long nowN = System.nanoTime();
+            syncToAudioClock(nowN);
+            long elapsedMs = phaseElapsedMs(nowN);
+            boolean inInhale = elapsedMs < inhaleMsCurrent;
+            int rgb = phaseColour(elapsedMs).getRGB();
+            long scene = sceneKey();
+            boolean turning = rotating(nowN);
+
+            if (scene != tickedScene || rgb != tickedRgb) {
+                repaint();
+            } else {
+                if (turning || tickedRotating) repaint(pentagonBounds);
+                if (showHud) {
+                    int countdown = countdownSeconds(elapsedMs, inInhale);
+                    if (inInhale != tickedInhale) repaint(wordBounds);
+                    if (inInhale != tickedInhale || countdown != tickedCountdown) repaint(countdownBounds);
+                    if (sessionActive && currentSessionMs() / 1000 != tickedSecond) {
+                        repaint(settingsBounds);
+                        repaint(bigTimerBounds);
+                        if (showHistory) repaint(historyBounds);
+                    }
+                }
+                if (showPerf) repaint(perfBounds);
+            }
+            tickedScene = scene;
+            tickedRgb = rgb;
+            tickedInhale = inInhale;
+            tickedRotating = turning;
+            tickedCountdown = countdownSeconds(elapsedMs, inInhale);
+            tickedSecond = sessionActive ? currentSessionMs() / 1000 : -1L;
+
+            anim.setInitialDelay(nextTickMs(elapsedMs, inInhale, turning));
+            anim.restart();
+        }
+
+        private int nextTickMs(long elapsedMs, boolean inInhale, boolean turning) {
+            boolean fading = transition == TransitionMode.SOFT && elapsedMs > softFadeStartMs();
+            if (turning || fading || showPerf) return FRAME_MS;
+            long next = phaseMsCurrent - elapsedMs;
+            if (transition == TransitionMode.SOFT) next = Math.min(next, softFadeStartMs() - elapsedMs);
+            if (showHud) {
+                long toFlip = inhaleMsCurrent - elapsedMs;
+                if (toFlip > 0) next = Math.min(next, toFlip);
+                long segPosMs = inInhale ? elapsedMs : elapsedMs - inhaleMsCurrent;
+                int segmentMs = inInhale ? inhaleMsCurrent : exhaleMsCurrent;
+                long toSecond = (segmentMs - segPosMs) % 1000;
+                if (toSecond > 0) next = Math.min(next, toSecond);
+                if (sessionActive) next = Math.min(next, 1000 - currentSessionMs() % 1000);
+            }
+            // Land just past the boundary; a late audio clock is polled at frame rate
+            return (int) Math.max(FRAME_MS / 4, Math.min(1000, next + 1));
+        }
+
         @Override
         protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2 = (Graphics2D) g.create();
+            long paintStartN = System.nanoTime();
+            // No super.paintComponent: the background fill below covers the panel, and the UI
+            // delegate's fill would clone the Graphics every frame. Painted on g itself for the
+            // same reason; the state touched here is restored at the end.
+            Graphics2D g2 = (Graphics2D) g;
+            Object savedAA = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+            Composite savedComposite = g2.getComposite();
+            Paint savedPaint = g2.getPaint();
+            Stroke savedStroke = g2.getStroke();
+            Font savedFont = g2.getFont();
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            ensureFonts(g2);
 
-            long nowN = pausedVisual ? pausedAtNanos : System.nanoTime();
-            long phaseElapsedMs = (phaseStartNanos == 0L)
-                    ? 0L
-                    : Math.max(0L, (nowN - phaseStartNanos) / 1_000_000L);
+            // The audio clock is read at the real time; the frame is drawn for when it is shown
+            long realN = System.nanoTime();
+            if (!pausedVisual) syncToAudioClock(realN);
+            long nowN = pausedVisual ? pausedAtNanos : (frameNanos != 0L ? frameNanos : realN);
+            long phaseElapsedMs = phaseElapsedMs(nowN);
 
             boolean inInhale = phaseElapsedMs < inhaleMsCurrent;
 
-            Color phaseColor;
-            if (transition == TransitionMode.SOFT) {
-                int fadeLen   = Math.min(600, phaseMsCurrent / 5);
-                int fadeStart = Math.max(0, phaseMsCurrent - fadeLen);
-
-                double fadeT;
-                if (phaseElapsedMs <= fadeStart) {
-                    fadeT = 0.0;
-                } else {
-                    double raw = (phaseElapsedMs - fadeStart) / (double) Math.max(1, fadeLen);
-                    fadeT = Math.max(0.0, Math.min(1.0, raw));
-                    fadeT = smooth(fadeT);
-                }
-                phaseColor = blend(PHASES[phaseIndex].color, fadeTo, fadeT);
-            } else {
-                phaseColor = cur.color;
-            }
+            Color phaseColor = phaseColour(phaseElapsedMs);
 
             Color bg = phaseColor;
 
-            g2.setComposite(AlphaComposite.SrcOver);
-            g2.setColor(bg);
-            g2.fillRect(0, 0, getWidth(), getHeight());
+            // A repaint of some regions only: parts wholly outside the clip are skipped
+            clipRect.setBounds(0, 0, getWidth(), getHeight());
+            g2.getClipBounds(clipRect);
+            countRepaint(clipRect);
+
+            GraphicsConfiguration gc = (frameConfig != null) ? frameConfig : getGraphicsConfiguration();
+            float scale = Math.min(renderScale, quality.level().maxScale);
+            Graphics2D sg = (scale < 1f) ? sceneGraphics(gc, scale) : g2;
+
+            sg.setComposite(AlphaComposite.SrcOver);
+            sg.setColor(bg);
+            sg.fillRect(0, 0, getWidth(), getHeight());
 
             if (rotationMode == RotationMode.NO_MOTION) {
                 rotationDeg = currentAngleDeg % 360.0;
@@ -943,73 +2178,57 @@ public class BugaSphereFivePhaseExperience {
             int cy = getHeight() / 2;
             int radius = Math.min(getWidth(), getHeight()) / 4;
 
-            Polygon poly = new Polygon();
-            double[] xs = new double[5];
-            double[] ys = new double[5];
-            for (int i = 0; i < 5; i++) {
-                double ang = Math.toRadians(rotationDeg + i * 72 - 90);
-                double x = cx + radius * Math.cos(ang);
-                double y = cy + radius * Math.sin(ang);
-                xs[i] = x;
-                ys[i] = y;
-                poly.addPoint((int) Math.round(x), (int) Math.round(y));
-            }
-
-            Graphics2D s = (Graphics2D) g2.create();
-            s.translate(4, 6);
-            s.setColor(new Color(0, 0, 0, 70));
-            s.fillPolygon(poly);
-            s.dispose();
-
-            Color base   = phaseColor;
-            Color lighter = blend(base, Color.WHITE, 0.55);
-            Color darker  = blend(base, Color.BLACK, 0.35);
-            float r = (float) (radius * 1.25);
-            Point2D center = new Point2D.Float((float) (cx - radius * 0.35), (float) (cy - radius * 0.35));
-            float[] dist = {0f, 0.6f, 1f};
-            Color[] cols = {lighter, base, darker};
-            RadialGradientPaint rgp = new RadialGradientPaint(center, r, dist, cols);
-            g2.setPaint(rgp);
-            g2.fillPolygon(poly);
-
-            drawVertexAO(g2, xs, ys, cx, cy);
-            drawCornerGlows(g2, xs, ys, phaseColor);
-
-            g2.setStroke(new BasicStroke(6f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            g2.setColor(PENTA_EDGE);
-            g2.drawPolygon(poly);
+            // Shadow offset, corner glows and edge stroke reach past the radius
+            int reach = radius + 32;
+            pentagonBounds.setBounds(cx - reach, cy - reach, 2 * reach, 2 * reach);
+
+            long pentagonStartN = System.nanoTime();
+            if (clipRect.intersects(pentagonBounds)) {
+                if (renderCache && sg != g2) {
+                    // In scene pixels, so the layer's own buffers shrink with the scale too
+                    sg.setTransform(IDENTITY);
+                    pentagon.paint(sg, gc, Math.round(cx * scale), Math.round(cy * scale), Math.round(radius * scale),
+                            scale, rotationDeg, phaseColor, quality.level());
+                    sg.setTransform(sceneTransform);
+                } else if (renderCache) {
+                    pentagon.paint(sg, gc, cx, cy, radius, 1f, rotationDeg, phaseColor, quality.level());
+                } else {
+                    drawPentagonUncached(sg, cx, cy, radius, phaseColor);
+                }
 
-            if (rotationMode != RotationMode.NO_MOTION) {
-                drawNeedle(g2, cx, cy, radius);
+                if (rotationMode != RotationMode.NO_MOTION) {
+                    drawNeedle(sg, cx, cy, radius);
+                }
             }
+            long pentagonN = System.nanoTime() - pentagonStartN;
+
+            if (sg != g2) upscaleScene(g2, scale);
 
             if (showHud) {
                 Color contrast = contrast(bg);
 
                 // Header
                 g2.setColor(contrast);
-                g2.setFont(getFont().deriveFont(Font.BOLD, 24f));
-                g2.drawString("Five-Phase Encoder", 24, 40);
+                hud.text(g2, "Five-Phase Encoder", bold24, 24, 40);
+                if (quality.level() != VisualQuality.FULL) {
+                    hud.text(g2, quality.level().hudText, plain13, 24, 62);
+                }
 
                 // INHALE / EXHALE word
                 String breathWordNow = inInhale ? "INHALE" : "EXHALE";
-                g2.setFont(getFont().deriveFont(Font.BOLD, Math.max(40f, getWidth() * 0.06f)));
-                Color overlay = (contrast == Color.BLACK)
-                        ? new Color(0, 0, 0, 120)
-                        : new Color(255, 255, 255, 160);
+                Color overlay = (contrast == Color.BLACK) ? WORD_ON_LIGHT : WORD_ON_DARK;
                 g2.setColor(overlay);
-                int bw = g2.getFontMetrics().stringWidth(breathWordNow);
+                int bw = fmBreath.stringWidth(breathWordNow);
                 int inhaleY = Math.max(60, cy - radius - 40);
-                g2.drawString(breathWordNow, (getWidth() - bw) / 2, inhaleY);
+                hud.text(g2, breathWordNow, breathFont, (getWidth() - bw) / 2, inhaleY);
+                wordBounds.setBounds(0, inhaleY - fmBreath.getMaxAscent() - 8,
+                        getWidth(), fmBreath.getMaxAscent() + fmBreath.getMaxDescent() + 16);
 
                 // Tone on the left (larger, aligned with phase)
                 int leftToneX = Math.max(24, cx - radius - 260);
                 g2.setColor(contrast);
-                g2.setFont(getFont().deriveFont(Font.BOLD, 24f));
-                String noteName = hzToNoteName(cur.hz);
-                String toneText = "Tone: " + (int) cur.hz + " Hz (" + noteName + ")";
                 int toneBaseY = cy + 10;
-                g2.drawString(toneText, leftToneX, toneBaseY);
+                hud.text(g2, toneText(cur), bold24, leftToneX, toneBaseY);
 
                 // Compute vertical reference for the left chip (under tone)
                 int leftChipTopY = toneBaseY + 20;   // matches drawBigSegmentTimer
@@ -1022,16 +2241,11 @@ public class BugaSphereFivePhaseExperience {
                 int rightX = cx + radius + 40;
 
                 g2.setColor(contrast);
-                g2.setFont(getFont().deriveFont(Font.BOLD, 28f));
                 String phaseLabel = cur.name;
-                g2.drawString(phaseLabel, rightX, toneBaseY);
+                hud.text(g2, phaseLabel, bold28, rightX, toneBaseY);
 
                 // Breath countdown chip (right)
-                int segmentMs = inInhale ? inhaleMsCurrent : exhaleMsCurrent;
-                int segPosMs  = inInhale
-                        ? (int) Math.min(segmentMs, Math.max(0, phaseElapsedMs))
-                        : (int) Math.min(segmentMs, Math.max(0, phaseElapsedMs - inhaleMsCurrent));
-                int remaining = (int) Math.ceil((segmentMs - segPosMs) / 1000.0);
+                int remaining = countdownSeconds(phaseElapsedMs, inInhale);
 
                 drawBreathCountdownChip(g2, rightX, rightChipCenterY, remaining, inInhale, bg);
 
@@ -1048,66 +2262,233 @@ public class BugaSphereFivePhaseExperience {
 
                 // Footer: help only
                 g2.setColor(contrast);
-                g2.setFont(getFont().deriveFont(Font.PLAIN, 14f));
 
-                String help =
-                        "[F11 / Alt+Enter] Full Screen   [SPACE] Start / Pause   [H] HUD   " +
-                                "[Q/W/E] Breath   [1–5] Speed   [T/Y] Transition   [7/8/0] Rotation   [Esc] Exit";
+                int wFooter = fmPlain14.stringWidth(HELP_TEXT);
+                hud.text(g2, HELP_TEXT, plain14, Math.max(24, getWidth() / 2 - wFooter / 2), getHeight() - 24);
+            }
+
+            if (showPerf) drawPerfOverlay(g2);
+
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, savedAA);
+            g2.setComposite(savedComposite);
+            g2.setPaint(savedPaint);
+            g2.setStroke(savedStroke);
+            g2.setFont(savedFont);
+
+            int slot = perfCount++ % PERF_FRAMES;
+            paintNanos[slot] = System.nanoTime() - paintStartN;
+            pentagonNanos[slot] = pentagonN;
+            // The uncached path is the full-detail reference and ignores the level
+            if (renderCache) quality.record(paintNanos[slot]);
+        }
+
+        /**
+         * The scene buffer's Graphics, scaled so the scene is drawn in panel
+         * coordinates, and clipped to the area being repainted (plus the
+         * pixels bilinear upscaling reads around it). Reused from frame to frame.
+         */
+        private Graphics2D sceneGraphics(GraphicsConfiguration gc, float scale) {
+            int w = Math.max(1, (int) Math.ceil(getWidth() * scale));
+            int h = Math.max(1, (int) Math.ceil(getHeight() * scale));
+            if (sceneBuf == null || sceneBuf.getWidth() != w || sceneBuf.getHeight() != h || sceneScale != scale) {
+                if (sceneG != null) sceneG.dispose();
+                sceneBuf = (gc != null) ? gc.createCompatibleImage(w, h) : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                sceneG = sceneBuf.createGraphics();
+                sceneG.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                sceneG.scale(scale, scale);
+                sceneTransform.setToScale(scale, scale);
+                sceneScale = scale;
+            }
+            if (clipRect.x <= 0 && clipRect.y <= 0
+                    && clipRect.width >= getWidth() && clipRect.height >= getHeight()) {
+                sceneG.setClip(null);
+            } else {
+                int pad = (int) Math.ceil(2 / scale);
+                sceneG.setClip(clipRect.x - pad, clipRect.y - pad, clipRect.width + 2 * pad, clipRect.height + 2 * pad);
+            }
+            return sceneG;
+        }
+
+        private void upscaleScene(Graphics2D g2, float scale) {
+            Object savedInterp = g2.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(sceneBuf, 0, 0, Math.round(sceneBuf.getWidth() / scale),
+                    Math.round(sceneBuf.getHeight() / scale), null);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, (savedInterp != null)
+                    ? savedInterp : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+
+        static float renderScaleFromSystemProperty() {
+            try {
+                float v = Float.parseFloat(System.getProperty("buga.render.scale", "1.0").trim());
+                return Math.max(0.5f, Math.min(1f, v));
+            } catch (NumberFormatException ex) {
+                return 1f;
+            }
+        }
+
+        /** Paints the whole panel as it will look at frameN, for ActiveRenderer; on the EDT. */
+        void paintFrame(Graphics2D g, long frameN, GraphicsConfiguration gc) {
+            frameNanos = frameN;
+            frameConfig = gc;
+            try {
+                paintComponent(g);
+            } finally {
+                frameNanos = 0L;
+                frameConfig = null;
+            }
+        }
+
+        // The pentagon as drawn before PentagonLayer; kept as the reference for Shift+F3
+        private void drawPentagonUncached(Graphics2D g2, int cx, int cy, int radius, Color phaseColor) {
+            Polygon poly = new Polygon();
+            double[] xs = new double[5];
+            double[] ys = new double[5];
+            for (int i = 0; i < 5; i++) {
+                double ang = Math.toRadians(rotationDeg + i * 72 - 90);
+                double x = cx + radius * Math.cos(ang);
+                double y = cy + radius * Math.sin(ang);
+                xs[i] = x;
+                ys[i] = y;
+                poly.addPoint((int) Math.round(x), (int) Math.round(y));
+            }
+
+            Graphics2D s = (Graphics2D) g2.create();
+            s.translate(4, 6);
+            s.setColor(new Color(0, 0, 0, 70));
+            s.fillPolygon(poly);
+            s.dispose();
+
+            g2.setPaint(PentagonLayer.lightGradient(cx, cy, radius, phaseColor));
+            g2.fillPolygon(poly);
+
+            drawVertexAO(g2, xs, ys, cx, cy);
+            drawCornerGlows(g2, xs, ys, phaseColor);
+
+            g2.setStroke(new BasicStroke(6f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2.setColor(PENTA_EDGE);
+            g2.drawPolygon(poly);
+        }
+
+        /**
+         * Average frame and pentagon times, worst frame, resolution, how the
+         * pentagon was drawn, and how long the last mode change took to be heard.
+         */
+        private void drawPerfOverlay(Graphics2D g2) {
+            int n = Math.min(perfCount, PERF_FRAMES);
+            if (n == 0) return;
+            long sum = 0L, max = 0L, pent = 0L;
+            for (int i = 0; i < n; i++) {
+                sum += paintNanos[i];
+                pent += pentagonNanos[i];
+                max = Math.max(max, paintNanos[i]);
+            }
+            String cache = renderCache ? pentagon.lastPath : "off";
+            SessionWriter sw = writer;
+            String saves = (sw == null) ? "off" : (sw.lastWriteMs() < 0)
+                    ? String.format("queue %d", sw.queueDepth())
+                    : String.format("queue %d, %d saved, write %.1f ms (max %.1f)",
+                            sw.queueDepth(), sw.saved(), sw.lastWriteMs(), sw.maxWriteMs());
+            String line = String.format("paint %.2f ms avg, %.2f ms max  |  pentagon %.2f ms  |  %d×%d  |  cache: %s"
+                            + "  |  repaint %.0f Hz, %.0f%% of panel  |  CPU %s  |  quality: %s%s  |  scale %.2f"
+                            + "  |  saves: %s  |  mode change heard after %s",
+                    sum / 1e6 / n, max / 1e6, pent / 1e6 / n, getWidth(), getHeight(), cache,
+                    repaintHz, repaintShare * 100, processCpu(),
+                    quality.level().label, quality.isAuto() ? " (auto, " + quality.changes() + " changes)" : "",
+                    Math.min(renderScale, quality.level().maxScale), saves,
+                    (lastSwitchLatencyMs < 0) ? "n/a" : String.format("%.1f ms", lastSwitchLatencyMs));
+
+            g2.setFont(plain13);
+            FontMetrics fm = fmPlain13;
+            int w = fm.stringWidth(line) + 16;
+            int x = 24;
+            int y = getHeight() - 64;
+            g2.setColor(PERF_BG);
+            fillRound(g2, x, y - fm.getAscent() - 4, w, fm.getHeight() + 8, 10);
+            g2.setColor(Color.WHITE);
+            g2.drawString(line, x + 8, y);
+            perfBounds.setBounds(x - 2, y - fm.getAscent() - 6, w + 4, fm.getHeight() + 12);
+        }
 
-                int wFooter = g2.getFontMetrics().stringWidth(help);
-                g2.drawString(help, Math.max(24, getWidth() / 2 - wFooter / 2), getHeight() - 24);
+        // Counts one paint of clip into the per-second repaint rate and repainted share
+        private void countRepaint(Rectangle clip) {
+            repaintPixels += (long) Math.max(0, Math.min(clip.width, getWidth()))
+                    * Math.max(0, Math.min(clip.height, getHeight()));
+            repaintFrames++;
+            long now = System.nanoTime();
+            long span = now - repaintWindowStartN;
+            if (span >= 1_000_000_000L) {
+                long area = Math.max(1L, (long) getWidth() * getHeight());
+                repaintHz = repaintFrames * 1e9 / span;
+                repaintShare = repaintPixels / (double) (area * Math.max(1L, repaintFrames));
+                repaintPixels = 0L;
+                repaintFrames = 0L;
+                repaintWindowStartN = now;
             }
+        }
 
-            g2.dispose();
+        // Whole-process CPU load, where the JVM reports it
+        private static String processCpu() {
+            java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (!(os instanceof com.sun.management.OperatingSystemMXBean)) return "n/a";
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            return load < 0 ? "n/a" : String.format("%.1f%%", load * 100);
+        }
+
+        void togglePerfOverlay() {
+            showPerf = !showPerf;
+            repaint();
+        }
+
+        void toggleRenderCache() {
+            renderCache = !renderCache;
+            perfCount = 0;
+            repaint();
         }
 
         private void drawCurrentSessionSettings(Graphics2D g2, Color bg) {
             Color contrast = contrast(bg);
-            int margin = 24;
-            int boxW = 360;
-            int boxH = 240;  // slightly taller to fit extra line
-            int boxRadius = 18;
-
-            int leftX = margin;
+            int leftX = 24;
             int settingsY = 90;
 
-            Font base = getFont();
-            Font titleFont  = base.deriveFont(Font.BOLD, 16f);
-            Font resetFont  = base.deriveFont(Font.BOLD, 13f);  // smaller for pill
-            Font bold14     = base.deriveFont(Font.BOLD, 14f);
-            Font plain14    = base.deriveFont(Font.PLAIN, 14f);
+            HudLayer settingsLayer = settingsLayers[contrast == Color.BLACK ? 1 : 0];
+            long key = breathStyle.ordinal() | speedMode.ordinal() << 4 | transition.ordinal() << 8
+                    | rotationMode.ordinal() << 12
+                    | (long) System.identityHashCode(fontBase) << 32;
+            if (settingsLayer.stale(key, null)) {
+                Graphics2D lg = settingsLayer.begin(key, null, leftX, settingsY, 360, 240);
+                paintSettingsWindow(lg, contrast, leftX, settingsY);
+                lg.dispose();
+            }
+            settingsLayer.draw(g2, leftX, settingsY);
+            settingsBounds.setBounds(leftX - 2, settingsY - 2, 364, 244);
 
+            g2.setColor(contrast);
+            hud.chars(g2, numChars, millisChars(currentSegmentMs()), bold20, segTimeX, segTimeY);
+            hud.chars(g2, numChars, millisChars(currentSessionMs()), bold20, sessionTimeX, sessionTimeY);
+        }
 
-            // Bigger fonts for times
-            Font bigLabelFont = base.deriveFont(Font.BOLD, 15f);
-            Font bigValueFont = base.deriveFont(Font.BOLD, 20f);
+        // Everything in the settings window but the two times, whose positions it records
+        private void paintSettingsWindow(Graphics2D g2, Color contrast, int leftX, int settingsY) {
+            int boxW = 360;
+            int boxH = 240;  // slightly taller to fit extra line
+            int boxRadius = 18;
 
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setColor(new Color(0, 0, 0, 90));
-            g2.fillRoundRect(leftX, settingsY, boxW, boxH, boxRadius, boxRadius);
+            g2.setColor(CHIP_BG);
+            fillRound(g2, leftX, settingsY, boxW, boxH, boxRadius);
 
             g2.setColor(contrast);
-            g2.setFont(titleFont);
-            g2.drawString("Current session settings", leftX + 14, settingsY + 24);
+            hud.text(g2, "Current session settings", bold16, leftX + 14, settingsY + 24);
 
             int textX = leftX + 16;
             int textY = settingsY + 44;
             int lineStep = 18;
 
-            g2.setFont(bold14);
-            FontMetrics fmBold = g2.getFontMetrics(bold14);
-
             // Breath
-            String breathText = breathLabel(breathStyle);
-            String lbl = "Breath: ";
-            g2.drawString(lbl, textX, textY);
-            int lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(breathText, textX + lw, textY);
+            drawRow(g2, "Breath: ", breathLabel(breathStyle), textX, textY);
             textY += lineStep;
 
             // Speed
-            g2.setFont(bold14);
             String speedText;
             switch (speedMode) {
                 case BALANCE:   speedText = "BALANCE (20s loop)";    break;
@@ -1117,59 +2498,33 @@ public class BugaSphereFivePhaseExperience {
                 case IGNITE:
                 default:        speedText = "IGNITE (10s loop)";     break;
             }
-            lbl = "Speed: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(speedText, textX + lw, textY);
+            drawRow(g2, "Speed: ", speedText, textX, textY);
             textY += lineStep;
 
             // Loop length (moved here, under speed)
-            g2.setFont(bold14);
-            lbl = "Loop length: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            String loopText = loopSeconds() + " s (5 phases)";
-            g2.drawString(loopText, textX + lw, textY);
+            drawRow(g2, "Loop length: ", LOOP_TEXT[speedMode.ordinal()], textX, textY);
             textY += lineStep;
 
             // Transition
-            g2.setFont(bold14);
-            String transitionText = transitionLabel(transition);
-            lbl = "Transition: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(transitionText, textX + lw, textY);
+            drawRow(g2, "Transition: ", transitionLabel(transition), textX, textY);
             textY += lineStep;
 
             // Rotation
-            g2.setFont(bold14);
-            String rotationText = rotationLabel(rotationMode);
-            lbl = "Rotation: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(rotationText, textX + lw, textY);
+            drawRow(g2, "Rotation: ", rotationLabel(rotationMode), textX, textY);
             textY += lineStep + 4;
 
             // Current segment time (larger)
-            g2.setFont(bigLabelFont);
-            lbl = "Current segment time: ";
-            g2.drawString(lbl, textX, textY);
-            lw = g2.getFontMetrics(bigLabelFont).stringWidth(lbl);
-            g2.setFont(bigValueFont);
-            g2.drawString(fmtMillis(currentSegmentMs()), textX + lw + 4, textY);
+            String lbl = "Current segment time: ";
+            hud.text(g2, lbl, bold15, textX, textY);
+            segTimeX = textX + fmBold15.stringWidth(lbl) + 4;
+            segTimeY = textY;
             textY += lineStep + 8;
 
             // Current session total time (larger)
-            g2.setFont(bigLabelFont);
             lbl = "Current session total time: ";
-            g2.drawString(lbl, textX, textY);
-            lw = g2.getFontMetrics(bigLabelFont).stringWidth(lbl);
-            g2.setFont(bigValueFont);
-            g2.drawString(fmtMillis(currentSessionMs()), textX + lw + 4, textY);
+            hud.text(g2, lbl, bold15, textX, textY);
+            sessionTimeX = textX + fmBold15.stringWidth(lbl) + 4;
+            sessionTimeY = textY;
         }
 
         /**
@@ -1185,10 +2540,6 @@ public class BugaSphereFivePhaseExperience {
             int cy = getHeight() / 2;
             int radius = Math.min(getWidth(), getHeight()) / 4;
 
-            // Rebuild the tone text to match the one drawn above
-            String noteName = hzToNoteName(cur.hz);
-            String toneText = "Tone: " + (int) cur.hz + " Hz (" + noteName + ")";
-
             // Same X as the tone so the chip sits directly under it, left of the pentagon
             int leftToneX = Math.max(24, cx - radius - 260);
             int toneY = cy + 10;          // baseline used for the tone label
@@ -1198,71 +2549,117 @@ public class BugaSphereFivePhaseExperience {
             int boxH = 70;
             int boxX = leftToneX;         // align with tone text
             int boxY = toneY + 20;        // space between tone and chip
+            bigTimerBounds.setBounds(boxX - 2, boxY - 2, boxW + 4, boxH + 4);
 
             long segMs = currentSegmentMs();
             String label = "Current segment time";
-            String time  = fmtMillis(segMs);
-
-            Font base = getFont();
-            Font labelFont = base.deriveFont(Font.BOLD, 14f);
-            Font timeFont  = base.deriveFont(Font.BOLD, 30f);
+            int timeLen = millisChars(segMs);
 
             // Chip background (semi-transparent rounded rect)
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setColor(new Color(0, 0, 0, 90));
-            g2.fillRoundRect(boxX, boxY, boxW, boxH, 16, 16);
+            g2.setColor(CHIP_BG);
+            fillRound(g2, boxX, boxY, boxW, boxH, 16);
 
             // Label
             g2.setColor(contrast);
-            g2.setFont(labelFont);
-            FontMetrics fmL = g2.getFontMetrics();
-            int lw = fmL.stringWidth(label);
+            int lw = fmBold14.stringWidth(label);
             int labelX = boxX + (boxW - lw) / 2;
             int labelY = boxY + 22;
-            g2.drawString(label, labelX, labelY);
+            hud.text(g2, label, bold14, labelX, labelY);
 
             // Time (big)
-            g2.setFont(timeFont);
-            FontMetrics fmT = g2.getFontMetrics();
-            int tw = fmT.stringWidth(time);
+            int tw = fmBold30.charsWidth(numChars, 0, timeLen);
             int timeX = boxX + (boxW - tw) / 2;
             int timeY = boxY + boxH - 12;
-            g2.drawString(time, timeX, timeY);
+            hud.chars(g2, numChars, timeLen, bold30, timeX, timeY);
         }
 
         private void drawHistoryWindow(Graphics2D g2, Color bg) {
             Color contrast = contrast(bg);
-            int margin = 24;
-            int boxW = 360;
-            int boxRadius = 18;
-
-            int historyX = getWidth() - margin - boxW;
+            int historyX = getWidth() - 24 - 360;
             int historyY = 90;
+            String lastText = (shownSession != null) ? shownInfo
+                    : (lastSessionInfo == null ? "" : lastSessionInfo);
+            boolean showSegments = (shownSession != null) ? !shownSession.segments.isEmpty()
+                    : !segments.isEmpty() && !sessionActive && lastSessionDurationMs > 0;
+
+            long key = (((((long) segmentsRevision * 31 + lifetimeSessions) * 31 + shownIndex) * 31 + getWidth()) * 31
+                    + getHeight()) * 31 + System.identityHashCode(fontBase);
+            key = key << 3 | (showSegments ? 4 : 0) | (sessionActive ? 2 : 0) | (resetConfirmVisible ? 1 : 0);
+            HudLayer historyLayer = historyLayers[contrast == Color.BLACK ? 1 : 0];
+            if (historyLayer.stale(key, lastText)) {
+                int boxH = historyHeight(g2, historyY, lastText, showSegments);
+                Graphics2D lg = historyLayer.begin(key, lastText, historyX, historyY, 360, boxH);
+                paintHistoryWindow(lg, contrast, historyX, historyY, boxH, lastText, showSegments);
+                lg.dispose();
+            }
+            historyLayer.draw(g2, historyX, historyY);
+            historyLayer.bounds(historyBounds, historyX, historyY);
+
+            // ---------- Running totals: stored totals plus, during a session, its segments ----------
+            if (closedSumsRevision != segmentsRevision) sumClosedSegments();
+            int openBreath = -1, openSpeed = -1;
+            long openMs = 0L;
+            if (sessionActive && !segments.isEmpty()) {
+                Segment last = segments.get(segments.size() - 1);
+                if (last.durationMs == 0) {
+                    openMs = TonePlayer.framesToMillis(Math.max(0L, clockFrames() - last.startFrame));
+                    openBreath = last.breath.ordinal();
+                    openSpeed = last.speed.ordinal();
+                }
+            }
 
-            Font base = getFont();
-            Font titleFont  = base.deriveFont(Font.BOLD, 16f);
-            Font resetFont  = base.deriveFont(Font.BOLD, 13f);  // new smaller font
-            Font bold14     = base.deriveFont(Font.BOLD, 14f);
-            Font plain14    = base.deriveFont(Font.PLAIN, 14f);
+            // The rows below the Reset pill are drawn in its edge colour, values included
+            g2.setColor(PILL_EDGE);
+            drawHistoryValue(g2, 0, currentLifetimeMs());
+            drawHistoryValue(g2, 1, totalCoherentMs  + sessionShare(closedBreathMs, BreathStyle.COHERENT.ordinal(), openBreath, openMs));
+            drawHistoryValue(g2, 2, totalRelaxedMs   + sessionShare(closedBreathMs, BreathStyle.RELAXED.ordinal(), openBreath, openMs));
+            drawHistoryValue(g2, 3, totalDeepCalmMs  + sessionShare(closedBreathMs, BreathStyle.DEEP_CALM.ordinal(), openBreath, openMs));
+            drawHistoryValue(g2, 4, totalIgniteMs    + sessionShare(closedSpeedMs, SpeedMode.IGNITE.ordinal(), openSpeed, openMs));
+            drawHistoryValue(g2, 5, totalBalanceMs   + sessionShare(closedSpeedMs, SpeedMode.BALANCE.ordinal(), openSpeed, openMs));
+            drawHistoryValue(g2, 6, totalHarmonyMs   + sessionShare(closedSpeedMs, SpeedMode.HARMONY.ordinal(), openSpeed, openMs));
+            drawHistoryValue(g2, 7, totalZenMs       + sessionShare(closedSpeedMs, SpeedMode.ZEN.ordinal(), openSpeed, openMs));
+            drawHistoryValue(g2, 8, totalTranscendMs + sessionShare(closedSpeedMs, SpeedMode.TRANSCEND.ordinal(), openSpeed, openMs));
+        }
 
+        // Only segments of the *current* active session count here; the open one is still growing
+        private long sessionShare(long[] closed, int ordinal, int openOrdinal, long openMs) {
+            if (!sessionActive) return 0L;
+            return closed[ordinal] + (ordinal == openOrdinal ? openMs : 0L);
+        }
 
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        private void sumClosedSegments() {
+            Arrays.fill(closedBreathMs, 0L);
+            Arrays.fill(closedSpeedMs, 0L);
+            for (Segment seg : segments) {
+                if (seg.durationMs <= 0L) continue;
+                closedBreathMs[seg.breath.ordinal()] += seg.durationMs;
+                closedSpeedMs[seg.speed.ordinal()] += seg.durationMs;
+            }
+            closedSumsRevision = segmentsRevision;
+        }
 
-            int lineStep = 18;
-            int contentTop = historyY + 44;
-            int textY = contentTop;
+        private void valueLabel(Graphics2D g2, int row, String lbl, int x, int y) {
+            hud.text(g2, lbl, bold14, x, y);
+            historyValueX[row] = x + fmBold14.stringWidth(lbl);
+            historyValueY[row] = y;
+        }
 
-            FontMetrics fmBold = g2.getFontMetrics(bold14);
+        private void drawHistoryValue(Graphics2D g2, int row, long ms) {
+            hud.chars(g2, numChars, millisChars(ms), plain14, historyValueX[row], historyValueY[row]);
+        }
+
+        // The History window's height for its current content, capped by the panel
+        private int historyHeight(Graphics2D g2, int historyY, String lastText, boolean showSegments) {
+            int boxW = 360;
+            int lineStep = 18;
+            int textY = historyY + 44;
 
-            // ----- First pass: compute needed height -----
             // Total sessions + time
             textY += lineStep; // Total sessions
             textY += lineStep; // Total time
 
             // "Last session:" + wrapped value
             textY += lineStep; // label
-            String lastText = lastSessionInfo == null ? "" : lastSessionInfo;
-            g2.setFont(plain14);
             int maxLastW = boxW - 32;
             int lastLines = lastText.isEmpty()
                     ? 1
@@ -1270,20 +2667,11 @@ public class BugaSphereFivePhaseExperience {
             textY += lastLines * lineStep;
 
             // Last session segments
-            if (!segments.isEmpty() && !sessionActive && lastSessionDurationMs > 0) {
+            if (showSegments) {
                 textY += 4;
                 textY += lineStep; // "Last session segments:"
                 int maxSegW = boxW - 32;
-                for (Segment seg : segments) {
-                    // UPDATED: include breath style in each segment line
-                    String segBase = "• " + fmtMillis(seg.durationMs) +
-                            " — " + breathLabel(seg.breath) +
-                            " — " + speedLabelShort(seg.speed) +
-                            " — " + rotationLabel(seg.rotation) +
-                            " — " + transitionLabel(seg.transition);
-                    int segLineCount = wrapTextToWidth(g2, segBase, maxSegW, plain14).size();
-                    textY += segLineCount * lineStep;
-                }
+                textY += segmentLines(g2, historySegments(), maxSegW).size() * lineStep;
             } else {
                 textY += lineStep / 2;
             }
@@ -1311,82 +2699,71 @@ public class BugaSphereFivePhaseExperience {
             int contentBottom = textY + confirmBoxExtra;
             int boxH = (contentBottom - historyY) + 16;
             int maxBoxH = getHeight() - historyY - 20;
-            boxH = Math.min(boxH, maxBoxH);
+            return Math.min(boxH, maxBoxH);
+        }
+
+        // Everything in the History window but the running totals, whose positions it records
+        private void paintHistoryWindow(Graphics2D g2, Color contrast, int historyX, int historyY,
+                                        int boxH, String lastText, boolean showSegments) {
+            int boxW = 360;
+            int boxRadius = 18;
+
+            int lineStep = 18;
+            int contentTop = historyY + 44;
 
             // ----- Background -----
-            g2.setColor(new Color(0, 0, 0, 90));
-            g2.fillRoundRect(historyX, historyY, boxW, boxH, boxRadius, boxRadius);
+            g2.setColor(CHIP_BG);
+            fillRound(g2, historyX, historyY, boxW, boxH, boxRadius);
 
             // ----- Header -----
             g2.setColor(contrast);
-            g2.setFont(titleFont);
             String title = "History";
-            g2.drawString(title, historyX + 14, historyY + 24);
+            hud.text(g2, title, bold16, historyX + 14, historyY + 24);
 
             // Reset data pill inside header
             String resetLabel = "Reset data";
 
             // use smaller font for this one
-            g2.setFont(resetFont);
-            FontMetrics fmReset = g2.getFontMetrics();
-            int resetW = fmReset.stringWidth(resetLabel) + 14;
+            int resetW = fmBold13.stringWidth(resetLabel) + 14;
             int resetH = 22;
             int resetX = historyX + boxW - resetW - 14;
             int resetY = historyY + 8;
 
-            g2.setColor(new Color(0, 0, 0, 130));
-            g2.fillRoundRect(resetX, resetY, resetW, resetH, 12, 12);
-            g2.setColor(new Color(255, 255, 255, 180));
-            g2.drawRoundRect(resetX, resetY, resetW, resetH, 12, 12);
+            g2.setColor(PILL_BG);
+            fillRound(g2, resetX, resetY, resetW, resetH, 12);
+            g2.setColor(PILL_EDGE);
+            drawRound(g2, resetX, resetY, resetW, resetH, 12);
 
             // now perfectly centered inside the pill
-            int textWidth  = fmReset.stringWidth(resetLabel);
+            int textWidth  = fmBold13.stringWidth(resetLabel);
             int resetTextX = resetX + (resetW - textWidth) / 2;
             int resetTextY = resetY + resetH - 6;
-            g2.drawString(resetLabel, resetTextX, resetTextY);
+            hud.text(g2, resetLabel, bold13, resetTextX, resetTextY);
 
-
-            resetDataBounds = new Rectangle(resetX, resetY, resetW, resetH);
+            resetDataRect.setBounds(resetX, resetY, resetW, resetH);
+            resetDataBounds = resetDataRect;
 
             int textX = historyX + 16;
-            textY = contentTop;
-
-            g2.setFont(bold14);
-            fmBold = g2.getFontMetrics(bold14);
-
-            // NOTE: currentSessionMs() is still used for total time only;
-            // breath breakdown comes from segments.
-            long csMs = currentSessionMs();
+            int textY = contentTop;
 
             // Total sessions
-            String lbl = "Total sessions: ";
-            g2.drawString(lbl, textX, textY);
-            int lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(String.valueOf(lifetimeSessions), textX + lw, textY);
+            int n = digitChars(lifetimeSessions, 1, 0);
+            drawRowChars(g2, "Total sessions: ", n, textX, textY);
             textY += lineStep;
 
             // Total time (lifetime + current session)
-            g2.setFont(bold14);
-            lbl = "Total time: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(currentLifetimeMs()), textX + lw, textY);
+            valueLabel(g2, 0, "Total time: ", textX, textY);
             textY += lineStep;
 
             // Last session label + text
-            g2.setFont(bold14);
-            lbl = "Last session:";
-            g2.drawString(lbl, textX, textY);
+            hud.text(g2, (shownSession != null) ? shownLabel : "Last session:", bold14, textX, textY);
             textY += lineStep;
 
-            g2.setFont(plain14);
             if (!lastText.isEmpty()) {
-                maxLastW = boxW - (textX - historyX) - 20;
+                int maxLastW = boxW - (textX - historyX) - 20;
                 List<String> lastLinesList = wrapTextToWidth(g2, lastText, maxLastW, plain14);
-                for (String line : lastLinesList) {
-                    g2.drawString(line, textX, textY);
+                for (int i = 0; i < lastLinesList.size(); i++) {
+                    hud.text(g2, lastLinesList.get(i), plain14, textX, textY);
                     textY += lineStep;
                 }
             } else {
@@ -1394,28 +2771,17 @@ public class BugaSphereFivePhaseExperience {
             }
 
             // Last session segments
-            if (!segments.isEmpty() && !sessionActive && lastSessionDurationMs > 0) {
+            if (showSegments) {
                 textY += 4;
-                g2.setFont(bold14);
-                g2.drawString("Last session segments:", textX, textY);
+                hud.text(g2, (shownSession != null) ? "Segments:" : "Last session segments:", bold14, textX, textY);
                 textY += lineStep;
 
-                g2.setFont(plain14);
                 int maxSegW = boxW - (textX - historyX) - 20;
-                for (Segment seg : segments) {
-                    // UPDATED: include breath style in each segment line
-                    String segBase = "• " + fmtMillis(seg.durationMs) +
-                            " — " + breathLabel(seg.breath) +
-                            " — " + speedLabelShort(seg.speed) +
-                            " — " + rotationLabel(seg.rotation) +
-                            " — " + transitionLabel(seg.transition);
-                    List<String> segLines = wrapTextToWidth(g2, segBase, maxSegW, plain14);
-                    for (String sl : segLines) {
-                        if (textY > historyY + boxH - 40) break;
-                        g2.drawString(sl, textX, textY);
-                        textY += lineStep;
-                    }
+                List<String> segLines = segmentLines(g2, historySegments(), maxSegW);
+                for (int i = 0; i < segLines.size(); i++) {
                     if (textY > historyY + boxH - 40) break;
+                    hud.text(g2, segLines.get(i), plain14, textX, textY);
+                    textY += lineStep;
                 }
             } else {
                 textY += lineStep / 2;
@@ -1424,139 +2790,29 @@ public class BugaSphereFivePhaseExperience {
             textY += 4;
 
             // ---------- Breath totals using segments (no time moving between breaths) ----------
-            g2.setFont(bold14);
-            g2.drawString("Breath totals:", textX, textY);
+            hud.text(g2, "Breath totals:", bold14, textX, textY);
             textY += lineStep;
 
-            long effCoherent = totalCoherentMs;
-            long effRelaxed  = totalRelaxedMs;
-            long effDeep     = totalDeepCalmMs;
-
-            // Only add segments from the *current* active session here
-            if (sessionActive) {
-                long nowMs = System.currentTimeMillis();
-                for (Segment seg : segments) {
-                    long d = (seg.durationMs > 0)
-                            ? seg.durationMs
-                            : Math.max(0L, nowMs - seg.startMs);
-                    if (d <= 0L) continue;
-                    switch (seg.breath) {
-                        case RELAXED:
-                            effRelaxed += d;
-                            break;
-                        case DEEP_CALM:
-                            effDeep += d;
-                            break;
-                        case COHERENT:
-                        default:
-                            effCoherent += d;
-                            break;
-                    }
-                }
-            }
-
-            g2.setFont(bold14);
-            lbl = "  Coherent: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effCoherent), textX + lw, textY);
+            valueLabel(g2, 1, "  Coherent: ", textX, textY);
             textY += lineStep;
-
-            g2.setFont(bold14);
-            lbl = "  Relaxed: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effRelaxed), textX + lw, textY);
+            valueLabel(g2, 2, "  Relaxed: ", textX, textY);
             textY += lineStep;
-
-            g2.setFont(bold14);
-            lbl = "  Deep Calm: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effDeep), textX + lw, textY);
+            valueLabel(g2, 3, "  Deep Calm: ", textX, textY);
             textY += lineStep + 4;
 
             // ---------- Speed totals using segments ----------
-            g2.setFont(bold14);
-            g2.drawString("Speed totals:", textX, textY);
-            textY += lineStep;
-
-            long effIgnite    = totalIgniteMs;
-            long effBalance   = totalBalanceMs;
-            long effHarmony   = totalHarmonyMs;
-            long effZen       = totalZenMs;
-            long effTranscend = totalTranscendMs;
-
-            if (sessionActive) {
-                long nowMs = System.currentTimeMillis();
-                for (Segment seg : segments) {
-                    long d = (seg.durationMs > 0)
-                            ? seg.durationMs
-                            : Math.max(0L, nowMs - seg.startMs);
-                    if (d <= 0L) continue;
-                    switch (seg.speed) {
-                        case BALANCE:
-                            effBalance += d;
-                            break;
-                        case HARMONY:
-                            effHarmony += d;
-                            break;
-                        case ZEN:
-                            effZen += d;
-                            break;
-                        case TRANSCEND:
-                            effTranscend += d;
-                            break;
-                        case IGNITE:
-                        default:
-                            effIgnite += d;
-                            break;
-                    }
-                }
-            }
-
-            g2.setFont(bold14);
-            lbl = "  Ignite: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effIgnite), textX + lw, textY);
+            hud.text(g2, "Speed totals:", bold14, textX, textY);
             textY += lineStep;
 
-            g2.setFont(bold14);
-            lbl = "  Balance: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effBalance), textX + lw, textY);
+            valueLabel(g2, 4, "  Ignite: ", textX, textY);
             textY += lineStep;
-
-            g2.setFont(bold14);
-            lbl = "  Harmony: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effHarmony), textX + lw, textY);
+            valueLabel(g2, 5, "  Balance: ", textX, textY);
             textY += lineStep;
-
-            g2.setFont(bold14);
-            lbl = "  Zen: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effZen), textX + lw, textY);
+            valueLabel(g2, 6, "  Harmony: ", textX, textY);
             textY += lineStep;
-
-            g2.setFont(bold14);
-            lbl = "  Transcend: ";
-            g2.drawString(lbl, textX, textY);
-            lw = fmBold.stringWidth(lbl);
-            g2.setFont(plain14);
-            g2.drawString(fmtMillis(effTranscend), textX + lw, textY);
+            valueLabel(g2, 7, "  Zen: ", textX, textY);
             textY += lineStep;
+            valueLabel(g2, 8, "  Transcend: ", textX, textY);
 
             // ---------- In-panel confirmation UI ----------
             resetYesBounds = null;
@@ -1569,19 +2825,18 @@ public class BugaSphereFivePhaseExperience {
                 int dialogY = historyY + boxH - dialogH - 16;
 
                 // Background
-                g2.setColor(new Color(0, 0, 0, 180));
-                g2.fillRoundRect(dialogX, dialogY, dialogW, dialogH, 12, 12);
-                g2.setColor(new Color(255, 255, 255, 180));
-                g2.drawRoundRect(dialogX, dialogY, dialogW, dialogH, 12, 12);
+                g2.setColor(DIALOG_BG);
+                fillRound(g2, dialogX, dialogY, dialogW, dialogH, 12);
+                g2.setColor(PILL_EDGE);
+                drawRound(g2, dialogX, dialogY, dialogW, dialogH, 12);
 
                 // Text
-                g2.setFont(bold14);
                 String q = "Reset all data?";
-                FontMetrics fm = g2.getFontMetrics();
+                FontMetrics fm = fmBold14;
                 int qW = fm.stringWidth(q);
                 int qX = dialogX + (dialogW - qW) / 2;
                 int qY = dialogY + 24;
-                g2.drawString(q, qX, qY);
+                hud.text(g2, q, bold14, qX, qY);
 
                 // Buttons
                 int btnW = 70;
@@ -1592,55 +2847,69 @@ public class BugaSphereFivePhaseExperience {
                 int btnY = dialogY + dialogH - btnH - 10;
 
                 // YES
-                resetYesBounds = new Rectangle(btnStartX, btnY, btnW, btnH);
-                g2.setColor(new Color(30, 160, 120, 220));
-                g2.fillRoundRect(btnStartX, btnY, btnW, btnH, 10, 10);
+                resetYesRect.setBounds(btnStartX, btnY, btnW, btnH);
+                resetYesBounds = resetYesRect;
+                g2.setColor(YES_BG);
+                fillRound(g2, btnStartX, btnY, btnW, btnH, 10);
                 g2.setColor(Color.WHITE);
-                g2.drawRoundRect(btnStartX, btnY, btnW, btnH, 10, 10);
+                drawRound(g2, btnStartX, btnY, btnW, btnH, 10);
                 String yesText = "Yes";
                 int yesW = fm.stringWidth(yesText);
-                g2.drawString(yesText,
+                hud.text(g2, yesText, bold14,
                         btnStartX + (btnW - yesW) / 2,
                         btnY + btnH - 7);
 
                 // NO
                 int noX = btnStartX + btnW + gap;
-                resetNoBounds = new Rectangle(noX, btnY, btnW, btnH);
-                g2.setColor(new Color(120, 120, 120, 220));
-                g2.fillRoundRect(noX, btnY, btnW, btnH, 10, 10);
+                resetNoRect.setBounds(noX, btnY, btnW, btnH);
+                resetNoBounds = resetNoRect;
+                g2.setColor(NO_BG);
+                fillRound(g2, noX, btnY, btnW, btnH, 10);
                 g2.setColor(Color.WHITE);
-                g2.drawRoundRect(noX, btnY, btnW, btnH, 10, 10);
+                drawRound(g2, noX, btnY, btnW, btnH, 10);
                 String noText = "No";
                 int noW = fm.stringWidth(noText);
-                g2.drawString(noText,
+                hud.text(g2, noText, bold14,
                         noX + (btnW - noW) / 2,
                         btnY + btnH - 7);
             }
         }
 
+        /** The "Last session segments" lines, wrapped to width. */
+        private List<String> segmentLines(Graphics2D g2, List<Segment> segs, int width) {
+            List<String> lines = new ArrayList<>();
+            for (Segment seg : segs) {
+                // UPDATED: include breath style in each segment line
+                String segBase = "• " + fmtMillis(seg.durationMs) +
+                        " — " + breathLabel(seg.breath) +
+                        " — " + speedLabelShort(seg.speed) +
+                        " — " + rotationLabel(seg.rotation) +
+                        " — " + transitionLabel(seg.transition);
+                lines.addAll(wrapTextToWidth(g2, segBase, width, plain14));
+            }
+            return lines;
+        }
+
         private void drawBreathCountdownChip(Graphics2D g2, int xLeft, int centerY,
                                              int remaining, boolean inInhale, Color bg) {
             int boxH = 70;
             int boxW = 160;
             int x = xLeft;
             int y = centerY - boxH / 2;   // vertically centered on the requested line
+            countdownBounds.setBounds(x - 2, y - 2, boxW + 4, boxH + 4);
 
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setColor(new Color(0, 0, 0, 90));
-            g2.fillRoundRect(x, y, boxW, boxH, 16, 16);
+            g2.setColor(CHIP_BG);
+            fillRound(g2, x, y, boxW, boxH, 16);
 
             Color fg = contrast(bg);
             g2.setColor(fg);
 
-            g2.setFont(getFont().deriveFont(Font.BOLD, 16f));
             String lbl = inInhale ? "Inhale" : "Exhale";
-            g2.drawString(lbl, x + 16, y + 24);
+            hud.text(g2, lbl, bold16, x + 16, y + 24);
 
-            g2.setFont(getFont().deriveFont(Font.BOLD, 36f));
-            String txt = String.valueOf(Math.max(0, remaining));
-            FontMetrics fm = g2.getFontMetrics();
-            int tw = fm.stringWidth(txt);
-            g2.drawString(txt, x + boxW - 16 - tw, y + 48);
+            int len = digitChars(Math.max(0, remaining), 1, 0);
+            int tw = fmBold36.charsWidth(numChars, 0, len);
+            hud.chars(g2, numChars, len, bold36, x + boxW - 16 - tw, y + 48);
         }
 
         private void drawVertexAO(Graphics2D g2, double[] xs, double[] ys, int cx, int cy) {
@@ -1695,17 +2964,16 @@ public class BugaSphereFivePhaseExperience {
             double x2 = cx + len * Math.cos(ang);
             double y2 = cy + len * Math.sin(ang);
 
-            Graphics2D core = (Graphics2D) g2.create();
-            core.setStroke(new BasicStroke(3.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            core.setColor(NEEDLE_COLOR);
-            core.draw(new Line2D.Double(cx, cy, x2, y2));
-            core.dispose();
+            Stroke oldStroke = g2.getStroke();
+            g2.setStroke(NEEDLE_STROKE);
+            g2.setColor(NEEDLE_COLOR);
+            needleLine.setLine(cx, cy, x2, y2);
+            g2.draw(needleLine);
+            g2.setStroke(oldStroke);
 
-            Graphics2D dot = (Graphics2D) g2.create();
-            dot.setColor(NEEDLE_COLOR);
             int d = 6;
-            dot.fill(new Ellipse2D.Double(cx - d / 2.0, cy - d / 2.0, d, d));
-            dot.dispose();
+            needleDot.setFrame(cx - d / 2.0, cy - d / 2.0, d, d);
+            g2.fill(needleDot);
         }
 
         static Color contrast(Color bg) {
@@ -1782,11 +3050,17 @@ public class BugaSphereFivePhaseExperience {
         private boolean wasDecorated;
         private boolean isFullScreen = false;
         private GraphicsDevice fsDevice;
+        private ActiveRenderer active;
 
         FullScreenHelper(JFrame f) {
             this.frame = f;
         }
 
+        /** Renders actively while fullscreen; without one (or if it cannot start) Swing paints. */
+        void setActiveRenderer(ActiveRenderer active) {
+            this.active = active;
+        }
+
         boolean isFullScreen() {
             return isFullScreen;
         }
@@ -1814,172 +3088,2108 @@ public class BugaSphereFivePhaseExperience {
                 frame.setUndecorated(true);
                 frame.setResizable(false);
 
-                // Show window before or while going fullscreen
-                frame.setVisible(true);
+                // Show window before or while going fullscreen
+                frame.setVisible(true);
+
+                if (dev.isFullScreenSupported()) {
+                    dev.setFullScreenWindow(frame);
+                } else {
+                    frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
+                }
+
+                isFullScreen = true;
+
+                // Make sure it doesn't end up behind other windows
+                bringToFrontAndFocus();
+
+                if (active != null && !active.start(dev)) {
+                    System.err.println("Active rendering unavailable, painting through Swing.");
+                }
+
+            } catch (Exception ex) {
+                // Fallback: just maximize
+                frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
+                frame.setVisible(true);
+                isFullScreen = true;
+
+                bringToFrontAndFocus();
+            }
+        }
+
+        private void exitFullScreen() {
+            if (active != null) active.stop();
+
+            try {
+                // Release fullscreen on the device if we're in it
+                if (fsDevice != null && fsDevice.getFullScreenWindow() == frame) {
+                    fsDevice.setFullScreenWindow(null);
+                }
+            } catch (Exception ignore) {
+            }
+
+            // Required to safely change undecorated flag
+            frame.dispose();
+            frame.setUndecorated(wasDecorated);
+            frame.setResizable(true);
+
+            if (prevBounds != null) {
+                frame.setBounds(prevBounds);
+            } else {
+                frame.setExtendedState(JFrame.NORMAL);
+            }
+
+            frame.setVisible(true);
+            isFullScreen = false;
+
+            // Again, make sure it stays visible and focused
+            bringToFrontAndFocus();
+        }
+
+        // Helper used by both enter/exit to avoid the "window vanished" feeling
+        private void bringToFrontAndFocus() {
+            frame.setAlwaysOnTop(true);
+            frame.toFront();
+            frame.requestFocus();
+            frame.setAlwaysOnTop(false);
+        }
+    }
+
+    /* ---------- Active fullscreen rendering ---------- */
+
+    /**
+     * Fullscreen drawing without Swing's repaint machinery. While started, a
+     * Canvas with a two-page flipping BufferStrategy takes the panel's place
+     * and a render thread keeps the frame clock: frames fall due at fixed
+     * System.nanoTime steps of the display's refresh period (late ones are
+     * dropped rather than bunched), and each is painted as it will look when
+     * it is shown, one period on, so motion stays even when a frame is drawn
+     * a little late. The panel's state belongs to the EDT, so drawing and the
+     * flip run there, one event per frame; the thread only waits. Paused, the
+     * clock slows to PAUSED_PERIOD_NANOS. The panel's own anim timer is held
+     * off while the canvas is in place.
+     *
+     * If no strategy can be made the panel stays where it is and Swing keeps
+     * painting it; -Dbuga.render.active=false never starts one.
+     */
+    static final class ActiveRenderer {
+        private static final long PAUSED_PERIOD_NANOS = 100_000_000L;
+        private static final int DEFAULT_REFRESH_HZ = 60;
+
+        private final Panel panel;
+        private final Canvas canvas = new Canvas();
+        // The current clock thread, null while stopped; one left from an earlier start() sees it is not and ends
+        private volatile Thread clock;
+        private volatile long frameAtNanos;
+        private long periodNanos;
+        private BufferStrategy strategy;
+        private Container host;
+        private Object constraints;
+
+        ActiveRenderer(Panel panel) {
+            this.panel = panel;
+            canvas.setIgnoreRepaint(true);
+            canvas.setFocusable(false);   // keys stay with the root pane's bindings
+            canvas.setBackground(Color.BLACK);
+            canvas.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    panel.handleClick(e.getPoint(), canvas);
+                }
+            });
+            canvas.addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    panel.setSize(canvas.getSize());
+                }
+            });
+        }
+
+        /** Swaps the canvas in for the panel and starts the clock; false, panel untouched, if it cannot. */
+        boolean start(GraphicsDevice dev) {
+            if (clock != null) return true;
+            host = panel.getParent();
+            if (host == null) return false;
+            LayoutManager lm = host.getLayout();
+            constraints = (lm instanceof BorderLayout) ? ((BorderLayout) lm).getConstraints(panel) : null;
+            host.remove(panel);
+            host.add(canvas, constraints);
+            host.validate();
+            panel.setSize(canvas.getSize());
+            panel.setActivelyRendered(true);
+
+            try {
+                BufferCapabilities flip = new BufferCapabilities(
+                        new ImageCapabilities(true), new ImageCapabilities(true),
+                        BufferCapabilities.FlipContents.UNDEFINED);
+                try {
+                    canvas.createBufferStrategy(2, flip);
+                } catch (AWTException ex) {
+                    canvas.createBufferStrategy(2);   // blitted instead of flipped, still drawn actively
+                }
+                strategy = canvas.getBufferStrategy();
+            } catch (IllegalStateException ex) {
+                strategy = null;
+            }
+            if (strategy == null) {
+                restorePanel();
+                return false;
+            }
+
+            int hz = dev.getDisplayMode().getRefreshRate();
+            if (hz == DisplayMode.REFRESH_RATE_UNKNOWN) hz = DEFAULT_REFRESH_HZ;
+            periodNanos = 1_000_000_000L / hz;
+
+            Thread t = new Thread(this::runClock, "active-render");
+            t.setDaemon(true);
+            clock = t;
+            t.start();
+            return true;
+        }
+
+        /**
+         * Stops the clock and puts the panel back; on the EDT, so no frame is
+         * drawn after it. The clock thread is interrupted rather than joined
+         * (it may be waiting on the EDT); whatever it does next, it is no
+         * longer the current clock, so it neither draws nor keeps going.
+         */
+        void stop() {
+            Thread t = clock;
+            if (t == null) return;
+            clock = null;
+            t.interrupt();
+            strategy.dispose();
+            strategy = null;
+            restorePanel();
+        }
+
+        private void restorePanel() {
+            host.remove(canvas);
+            host.add(panel, constraints);
+            host.validate();
+            panel.setActivelyRendered(false);
+            panel.repaint();
+        }
+
+        private void runClock() {
+            Thread self = Thread.currentThread();
+            Runnable draw = () -> {
+                if (clock == self) drawFrame();
+            };
+            long due = System.nanoTime();
+            while (clock == self) {
+                long period = panel.pausedVisual ? PAUSED_PERIOD_NANOS : periodNanos;
+                due += period;
+                long now = System.nanoTime();
+                if (now - due > period) due = now;   // fell behind: drop the missed frames
+                while (now < due && clock == self) {
+                    LockSupport.parkNanos(due - now);
+                    now = System.nanoTime();
+                }
+                if (clock != self) return;
+                frameAtNanos = due + periodNanos;      // shown at the flip after this one
+                if (panel.renderSuspended) continue;
+                try {
+                    EventQueue.invokeAndWait(draw);
+                } catch (InterruptedException ex) {
+                    return;
+                } catch (InvocationTargetException ex) {
+                    ex.getCause().printStackTrace();
+                }
+            }
+        }
+
+        private void drawFrame() {
+            GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        panel.paintFrame(g, frameAtNanos, gc);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+        }
+    }
+
+    /* ---------- Pentagon layer cache ---------- */
+
+    /**
+     * Draws the shaded pentagon — drop shadow, lit fill, vertex AO, corner
+     * glows and edge — from cached images instead of building eleven gradients
+     * every frame.
+     *
+     * The light comes from a fixed screen direction and does not turn with
+     * the pentagon, so the lit fill is a light field pre-rendered once per
+     * (radius, colour) and laid under the rotating polygon as a TexturePaint.
+     * AO and glow blobs are small sprites (the glow one per colour). When
+     * nothing changed since the previous frame (no motion, a finished kinetic
+     * step, a paused session) the whole layer is a single cached image.
+     *
+     * While the colour changes every frame (soft fades) the fill uses the
+     * gradient directly: a fresh light field per frame would cost more than
+     * it saves.
+     *
+     * Below render scale 1 it is painted in the scene buffer's own pixels:
+     * cx, cy and radius come in scaled, and detail scales the fixed-size
+     * parts (shadow offset, padding, sprites, edge stroke) to match, so every
+     * buffer here is as small as the scene.
+     */
+    static final class PentagonLayer {
+        private static final int PAD = 32;          // shadow offset, glows and edge stroke
+        private static final float AO_R = 18f;
+        private static final float GLOW_R = 20f;
+        private static final Color SHADOW = new Color(0, 0, 0, 70);
+        static final BasicStroke EDGE_STROKE = new BasicStroke(6f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+
+        private final Polygon poly = new Polygon();
+        private final double[] xs = new double[5];
+        private final double[] ys = new double[5];
+
+        /*
+         * The light field is drawn as the phase colour plus a colour-independent
+         * shade over it: the gradient runs lighter -> base -> darker, and
+         * lighter/darker are blends towards white/black, which is the same as
+         * white (then black) laid over the base at the matching alpha. The shade
+         * covers the pentagon's circle, anchored at (cx - radius - 1, cy - radius - 1),
+         * and only changes with the radius, so colour fades rebuild nothing.
+         * Base and shade are composed in `lit` (masked by the pentagon) and
+         * blitted: a TexturePaint fill would build a new paint context per call.
+         */
+        private BufferedImage shade;
+        private BufferedImage lit;
+        private Graphics2D litG;
+        private int shadeRadius = -1;
+
+        private BufferedImage aoSprite;
+        // Glow sprite, rewritten in place from glowAlpha when the colour changes
+        private BufferedImage glowSprite;
+        private float[] glowAlpha;
+        private int[] glowPixels;
+        private int glowRgb;
+
+        // Whole layer, valid while position, radius, rotation and colour stay put
+        private BufferedImage layer;
+        private boolean layerValid = false;
+
+        private int prevCx, prevCy, prevRadius = -1, prevRgb;
+        private double prevRot = Double.NaN;
+        private VisualQuality prevQuality;
+
+        // Scale of the fixed-size parts; the edge stroke is rebuilt when it changes
+        private float detail = 1f;
+        private BasicStroke edgeStroke = EDGE_STROKE;
+
+        /** How the last frame was drawn, for the frame-time overlay. */
+        String lastPath = "";
+
+        void paint(Graphics2D g2, GraphicsConfiguration gc, int cx, int cy, int radius, float detail,
+                   double rotationDeg, Color phaseColor, VisualQuality q) {
+            if (detail != this.detail) {
+                this.detail = detail;
+                edgeStroke = (detail == 1f) ? EDGE_STROKE : new BasicStroke(EDGE_STROKE.getLineWidth() * detail,
+                        BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+                aoSprite = null;
+                glowSprite = null;
+                prevRadius = -1;
+            }
+            int rgb = phaseColor.getRGB();
+            boolean colourStill = (rgb == prevRgb && radius == prevRadius);
+            boolean still = colourStill && cx == prevCx && cy == prevCy && rotationDeg == prevRot
+                    && q == prevQuality;
+            if (!still) layerValid = false;
+            prevCx = cx;
+            prevCy = cy;
+            prevRadius = radius;
+            prevRgb = rgb;
+            prevRot = rotationDeg;
+            prevQuality = q;
+
+            if (still) {
+                if (!layerValid) buildLayer(gc, cx, cy, radius, rotationDeg, phaseColor, q);
+                int pad = pad();
+                g2.drawImage(layer, cx - radius - pad, cy - radius - pad, null);
+                lastPath = "layer";
+                return;
+            }
+            drawShape(g2, gc, cx, cy, radius, rotationDeg, phaseColor, q);
+            lastPath = colourStill ? "sprites" : "sprites, new glow";
+        }
+
+        private void buildLayer(GraphicsConfiguration gc, int cx, int cy, int radius,
+                                double rotationDeg, Color phaseColor, VisualQuality q) {
+            int pad = pad();
+            int side = 2 * (radius + pad);
+            if (layer == null || layer.getWidth() != side) {
+                layer = createImage(gc, side, side);
+            }
+            Graphics2D lg = layer.createGraphics();
+            lg.setComposite(AlphaComposite.Clear);
+            lg.fillRect(0, 0, side, side);
+            lg.setComposite(AlphaComposite.SrcOver);
+            lg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            lg.translate(-(cx - radius - pad), -(cy - radius - pad));
+            drawShape(lg, gc, cx, cy, radius, rotationDeg, phaseColor, q);
+            lg.dispose();
+            layerValid = true;
+        }
+
+        private void drawShape(Graphics2D g2, GraphicsConfiguration gc, int cx, int cy, int radius,
+                               double rotationDeg, Color phaseColor, VisualQuality q) {
+            poly.reset();
+            for (int i = 0; i < 5; i++) {
+                double ang = Math.toRadians(rotationDeg + i * 72 - 90);
+                double x = cx + radius * Math.cos(ang);
+                double y = cy + radius * Math.sin(ang);
+                xs[i] = x;
+                ys[i] = y;
+                poly.addPoint((int) Math.round(x), (int) Math.round(y));
+            }
+
+            // fill(Shape) rather than fillPolygon, which copies the polygon into a new path each call
+            double sx = 4 * detail, sy = 6 * detail;
+            g2.translate(sx, sy);
+            g2.setColor(SHADOW);
+            g2.fill(poly);
+            g2.translate(-sx, -sy);
+
+            if (q.flatFill) {
+                g2.setColor(phaseColor);
+                g2.fill(poly);
+            } else {
+                drawLit(g2, cx, cy, radius, phaseColor);
+            }
+
+            if (q.ao) {
+                float r = AO_R * detail;
+                if (aoSprite == null) aoSprite = buildAoSprite(gc, r);
+                for (int i = 0; i < 5; i++) {
+                    double ox = cx + (xs[i] - cx) * 0.92;
+                    double oy = cy + (ys[i] - cy) * 0.92;
+                    g2.drawImage(aoSprite, (int) Math.round(ox - r), (int) Math.round(oy - r), null);
+                }
+            }
+
+            if (q.glows) {
+                int rgb = phaseColor.getRGB();
+                float r = GLOW_R * detail;
+                if (glowSprite == null || glowRgb != rgb) {
+                    fillGlowSprite(phaseColor, r);
+                    glowRgb = rgb;
+                }
+                for (int i = 0; i < 5; i++) {
+                    double gx = xs[i] * 0.98 + xs[(i + 1) % 5] * 0.02;
+                    double gy = ys[i] * 0.98 + ys[(i + 1) % 5] * 0.02;
+                    g2.drawImage(glowSprite, (int) Math.round(gx - r), (int) Math.round(gy - r), null);
+                }
+            }
+
+            g2.setStroke(edgeStroke);
+            g2.setColor(Panel.PENTA_EDGE);
+            g2.draw(poly);
+        }
+
+        private int pad() {
+            return (int) Math.ceil(PAD * detail);
+        }
+
+        // Same gradient as the uncached path: lit from the upper left, in screen space
+        static RadialGradientPaint lightGradient(int cx, int cy, int radius, Color base) {
+            Color lighter = Panel.blend(base, Color.WHITE, 0.55);
+            Color darker  = Panel.blend(base, Color.BLACK, 0.35);
+            float r = (float) (radius * 1.25);
+            Point2D center = new Point2D.Float((float) (cx - radius * 0.35), (float) (cy - radius * 0.35));
+            float[] dist = {0f, 0.6f, 1f};
+            Color[] cols = {lighter, base, darker};
+            return new RadialGradientPaint(center, r, dist, cols);
+        }
+
+        private void drawLit(Graphics2D g2, int cx, int cy, int radius, Color phaseColor) {
+            int side = 2 * radius + 2;
+            int ox = cx - radius - 1;
+            int oy = cy - radius - 1;
+            if (radius != shadeRadius) {
+                shade = buildShade(radius);
+                lit = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB_PRE);
+                if (litG != null) litG.dispose();
+                litG = lit.createGraphics();
+                litG.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                shadeRadius = radius;
+            }
+            litG.setComposite(AlphaComposite.Clear);
+            litG.fillRect(0, 0, side, side);
+            litG.setComposite(AlphaComposite.SrcOver);
+            litG.setColor(phaseColor);
+            litG.translate(-ox, -oy);
+            litG.fill(poly);
+            litG.translate(ox, oy);
+            litG.setComposite(AlphaComposite.SrcAtop);
+            litG.drawImage(shade, 0, 0, null);
+            g2.drawImage(lit, ox, oy, null);
+        }
+
+        // lightGradient's stops as alphas: white 0.55 -> clear at 0.6 -> black 0.35 at the rim and beyond
+        private static BufferedImage buildShade(int radius) {
+            int side = 2 * radius + 2;
+            double gx = radius + 1 - radius * 0.35;
+            double gy = gx;
+            double r = radius * 1.25;
+            int[] px = new int[side * side];
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    double f = Math.hypot(x + 0.5 - gx, y + 0.5 - gy) / r;
+                    int a;
+                    if (f < 0.6) {
+                        a = (int) Math.round(255 * 0.55 * (1 - f / 0.6));
+                        px[y * side + x] = a << 24 | a << 16 | a << 8 | a;
+                    } else {
+                        a = (int) Math.round(255 * 0.35 * Math.min(1.0, (f - 0.6) / 0.4));
+                        px[y * side + x] = a << 24;
+                    }
+                }
+            }
+            BufferedImage img = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB_PRE);
+            img.getRaster().setDataElements(0, 0, side, side, px);
+            return img;
+        }
+
+        // Both sprites are built at their drawn size: a scaled drawImage allocates on every call
+        private static BufferedImage buildAoSprite(GraphicsConfiguration gc, float r) {
+            int side = Math.round(2 * r);
+            BufferedImage img = createImage(gc, side, side);
+            Graphics2D g = img.createGraphics();
+            g.setPaint(new RadialGradientPaint(new Point2D.Float(r, r), r, new float[]{0f, 1f},
+                    new Color[]{ new Color(0, 0, 0, 120), new Color(0, 0, 0, 0) }));
+            g.fillRect(0, 0, side, side);
+            g.dispose();
+            return img;
+        }
+
+        // Glow stops: bright colour at alpha 200 -> 120 at 0.4 -> clear at the rim
+        private void fillGlowSprite(Color phaseColor, float radius) {
+            int side = Math.round(2 * radius);
+            if (glowSprite == null) {
+                glowSprite = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB_PRE);
+                glowPixels = new int[side * side];
+                glowAlpha = new float[side * side];
+                for (int y = 0; y < side; y++) {
+                    for (int x = 0; x < side; x++) {
+                        double f = Math.hypot(x + 0.5 - radius, y + 0.5 - radius) / radius;
+                        double a = (f < 0.4) ? 200 - 80 * f / 0.4 : (f < 1.0) ? 120 * (1 - (f - 0.4) / 0.6) : 0;
+                        glowAlpha[y * side + x] = (float) (a / 255.0);
+                    }
+                }
+            }
+            int rgb = phaseColor.getRGB();
+            int r = (int) Math.round(((rgb >> 16) & 0xFF) + (255 - ((rgb >> 16) & 0xFF)) * 0.75);
+            int g = (int) Math.round(((rgb >> 8) & 0xFF) + (255 - ((rgb >> 8) & 0xFF)) * 0.75);
+            int b = (int) Math.round((rgb & 0xFF) + (255 - (rgb & 0xFF)) * 0.75);
+            for (int i = 0; i < glowPixels.length; i++) {
+                float a = glowAlpha[i];
+                glowPixels[i] = Math.round(a * 255) << 24 | Math.round(r * a) << 16 | Math.round(g * a) << 8 | Math.round(b * a);
+            }
+            glowSprite.getRaster().setDataElements(0, 0, side, side, glowPixels);
+        }
+
+        private static BufferedImage createImage(GraphicsConfiguration gc, int w, int h) {
+            return (gc != null)
+                    ? gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT)
+                    : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+    }
+
+    /* ---------- Soft fade colours ---------- */
+
+    /**
+     * The colours of the five Soft fades, phase i into phase i + 1, at STEPS
+     * points each. They are mixed in linear light: both ends are decoded from
+     * sRGB, interpolated and encoded again, so a fade keeps its brightness
+     * instead of dipping through the dull midpoint of an sRGB mix (cyan to
+     * green, for one). Built once, as ready Color instances; a fade frame
+     * only indexes it, and the ends are the phase colours themselves.
+     */
+    static final class FadeTable {
+        static final int STEPS = 256;
+
+        private static final Color[][] COLOURS = new Color[PHASES.length][STEPS];
+
+        static {
+            for (int i = 0; i < PHASES.length; i++) {
+                Color from = PHASES[i].color;
+                Color to = PHASES[(i + 1) % PHASES.length].color;
+                for (int k = 0; k < STEPS; k++) {
+                    double t = k / (double) (STEPS - 1);
+                    int rgb = mix(from.getRed(),   to.getRed(),   t) << 16
+                            | mix(from.getGreen(), to.getGreen(), t) << 8
+                            | mix(from.getBlue(),  to.getBlue(),  t);
+                    COLOURS[i][k] = (k == 0) ? from : (k == STEPS - 1) ? to : new Color(rgb);
+                }
+            }
+        }
+
+        private FadeTable() {}
+
+        /** Colour of the fade out of phase `from` at t in [0, 1]. */
+        static Color colour(int from, double t) {
+            return COLOURS[from][(int) Math.round(Math.max(0.0, Math.min(1.0, t)) * (STEPS - 1))];
+        }
+
+
+        private static int mix(int a, int b, double t) {
+            double lin = toLinear(a) + (toLinear(b) - toLinear(a)) * t;
+            return (int) Math.round(toSrgb(lin) * 255);
+        }
+
+        private static double toLinear(int c) {
+            double v = c / 255.0;
+            return (v <= 0.04045) ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+        }
+
+        private static double toSrgb(double lin) {
+            double v = (lin <= 0.0031308) ? lin * 12.92 : 1.055 * Math.pow(lin, 1 / 2.4) - 0.055;
+            return Math.max(0.0, Math.min(1.0, v));
+        }
+    }
+
+    /* ---------- Visual quality ---------- */
+
+    /**
+     * Pentagon detail, most first; each level also drops everything the ones
+     * before it dropped. maxScale caps the panel's render scale.
+     */
+    enum VisualQuality {
+        FULL    ("full",            true,  true,  false, 1f),
+        NO_AO   ("no AO",           false, true,  false, 1f),
+        NO_GLOWS("no glows",        false, false, false, 1f),
+        FLAT    ("flat fill",       false, false, true,  1f),
+        LOW_RES ("half resolution", false, false, true,  0.5f);
+
+        final String label;
+        final String hudText;
+        final boolean ao, glows, flatFill;
+        final float maxScale;
+
+        VisualQuality(String label, boolean ao, boolean glows, boolean flatFill, float maxScale) {
+            this.label = label;
+            this.hudText = "Render quality: " + label;
+            this.ao = ao;
+            this.glows = glows;
+            this.flatFill = flatFill;
+            this.maxScale = maxScale;
+        }
+    }
+
+    /**
+     * Picks the VisualQuality from painted frame times. Frames are judged a
+     * WINDOW at a time: when more than a tenth of a window ran over the
+     * 16 ms budget the level steps down; it steps back up only after
+     * UP_WINDOWS windows in a row whose slowest frame took under half the
+     * budget, so a level that only just fits does not flap. Each change
+     * starts a fresh window.
+     *
+     * -Dbuga.render.quality=full|no-ao|no-glows|flat|low-res fixes the level instead
+     * (default: auto).
+     */
+    static final class QualityGovernor {
+        static final long BUDGET_NANOS = 16_000_000L;
+        static final int WINDOW = 60;
+        static final int UP_WINDOWS = 3;
+
+        private final boolean auto;
+        private volatile VisualQuality level;
+        private int frames, overBudget, goodWindows, changes;
+        private long slowest;
+
+        QualityGovernor(VisualQuality fixed) {
+            this.auto = (fixed == null);
+            this.level = auto ? VisualQuality.FULL : fixed;
+        }
+
+        static QualityGovernor fromSystemProperty() {
+            String v = System.getProperty("buga.render.quality", "auto").trim();
+            for (VisualQuality q : VisualQuality.values()) {
+                if (v.equalsIgnoreCase(q.name().replace('_', '-'))) return new QualityGovernor(q);
+            }
+            return new QualityGovernor(null);
+        }
+
+        VisualQuality level() {
+            return level;
+        }
+
+        boolean isAuto() {
+            return auto;
+        }
+
+        /** Level changes so far, for the frame-time overlay. */
+        int changes() {
+            return changes;
+        }
+
+        /** Takes one painted frame's time. */
+        void record(long paintNanos) {
+            if (!auto) return;
+            frames++;
+            if (paintNanos > BUDGET_NANOS) overBudget++;
+            slowest = Math.max(slowest, paintNanos);
+            if (frames < WINDOW) return;
+
+            VisualQuality[] all = VisualQuality.values();
+            int i = level.ordinal();
+            int next = i;
+            if (overBudget * 10 > WINDOW) {
+                goodWindows = 0;
+                if (i < all.length - 1) next = i + 1;
+            } else if (slowest < BUDGET_NANOS / 2) {
+                if (++goodWindows >= UP_WINDOWS && i > 0) next = i - 1;
+            } else {
+                goodWindows = 0;
+            }
+            frames = 0;
+            overBudget = 0;
+            slowest = 0L;
+            if (next == i) return;
+            level = all[next];
+            goodWindows = 0;
+            changes++;
+        }
+    }
+
+    /* ---------- HUD sprites ---------- */
+
+    /**
+     * Text, digits and rounded boxes of the HUD, rendered once into small
+     * images and from then on only blitted. Drawn directly they allocate on
+     * every frame inside Java2D: each font switch builds a new strike lookup
+     * and each antialiased shape a new path iterator. Like drawString and
+     * fill, everything is drawn in the Graphics' current colour; integer
+     * positions keep the result pixel-identical to drawing directly.
+     */
+    static final class HudSprites {
+        private static final int MAX_FACES = 32;
+        private static final int MAX_TEXTS = 256;   // per face; the cache starts over past this
+        private static final int MAX_BOXES = 32;
+
+        private static final class Sprite {
+            final BufferedImage img;
+            final int dx, dy;   // image origin relative to the draw position
+
+            Sprite(BufferedImage img, int dx, int dy) {
+                this.img = img;
+                this.dx = dx;
+                this.dy = dy;
+            }
+        }
+
+        private static final class Face {
+            final Font font;
+            final Color color;
+            final FontMetrics fm;
+            final Object antialias, textAA, fractional;   // text follows antialias when textAA is DEFAULT
+            final int pad;
+            final HashMap<String, Sprite> texts = new HashMap<>();
+            final Sprite[] glyphs = new Sprite[128];
+
+            Face(Graphics2D g2, Font font, Color color) {
+                this.font = font;
+                this.color = color;
+                this.fm = g2.getFontMetrics(font);
+                this.antialias = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+                this.textAA = g2.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+                this.fractional = g2.getRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS);
+                this.pad = 2 + font.getSize() / 6;   // room for glyphs overhanging their advance
+            }
+        }
+
+        private static final class Box {
+            final int w, h, arc;
+            final boolean fill;
+            final Color color;
+            final BufferedImage img;
+
+            Box(int w, int h, int arc, boolean fill, Color color) {
+                this.w = w;
+                this.h = h;
+                this.arc = arc;
+                this.fill = fill;
+                this.color = color;
+                // one pixel of margin for the antialiased edge
+                img = new BufferedImage(w + 3, h + 3, BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D g = img.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setColor(color);
+                g.translate(1, 1);
+                if (fill) {
+                    g.fillRoundRect(0, 0, w, h, arc, arc);
+                } else {
+                    g.drawRoundRect(0, 0, w, h, arc, arc);
+                }
+                g.dispose();
+            }
+        }
+
+        private final ArrayList<Face> faces = new ArrayList<>();
+        private final ArrayList<Box> boxes = new ArrayList<>();
+
+        void text(Graphics2D g2, String s, Font font, int x, int y) {
+            if (s.isEmpty()) return;
+            Face f = face(g2, font);
+            Sprite sp = f.texts.get(s);
+            if (sp == null) {
+                if (f.texts.size() >= MAX_TEXTS) f.texts.clear();
+                sp = render(f, s);
+                f.texts.put(s, sp);
+            }
+            g2.drawImage(sp.img, x + sp.dx, y + sp.dy, null);
+        }
+
+        /** drawChars for short ASCII runs (times, counters), one cached sprite per glyph. */
+        void chars(Graphics2D g2, char[] cs, int len, Font font, int x, int y) {
+            Face f = face(g2, font);
+            for (int i = 0; i < len; i++) {
+                char c = cs[i];
+                if (c >= f.glyphs.length) {
+                    text(g2, String.valueOf(c), font, x, y);
+                } else {
+                    Sprite sp = f.glyphs[c];
+                    if (sp == null) {
+                        sp = render(f, String.valueOf(c));
+                        f.glyphs[c] = sp;
+                    }
+                    g2.drawImage(sp.img, x + sp.dx, y + sp.dy, null);
+                }
+                x += f.fm.charWidth(c);
+            }
+        }
+
+        /** fillRoundRect / drawRoundRect with equal arcs. */
+        void box(Graphics2D g2, int x, int y, int w, int h, int arc, boolean fill) {
+            Color c = g2.getColor();
+            Box b = null;
+            for (int i = 0; i < boxes.size(); i++) {
+                Box e = boxes.get(i);
+                if (e.w == w && e.h == h && e.arc == arc && e.fill == fill && e.color == c) {
+                    b = e;
+                    break;
+                }
+            }
+            if (b == null) {
+                if (boxes.size() >= MAX_BOXES) boxes.clear();
+                b = new Box(w, h, arc, fill, c);
+                boxes.add(b);
+            }
+            g2.drawImage(b.img, x - 1, y - 1, null);
+        }
+
+        private Face face(Graphics2D g2, Font font) {
+            Color c = g2.getColor();
+            for (int i = 0; i < faces.size(); i++) {
+                Face f = faces.get(i);
+                if (f.font == font && f.color == c
+                        && f.antialias == g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING)) return f;
+            }
+            if (faces.size() >= MAX_FACES) faces.clear();
+            Face f = new Face(g2, font, c);
+            faces.add(f);
+            return f;
+        }
+
+        private static Sprite render(Face f, String s) {
+            int ascent = f.fm.getMaxAscent() + f.pad;
+            int w = f.fm.stringWidth(s) + 2 * f.pad;
+            int h = ascent + f.fm.getMaxDescent() + f.pad;
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = img.createGraphics();
+            if (f.antialias != null) g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, f.antialias);
+            if (f.textAA != null) g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, f.textAA);
+            if (f.fractional != null) g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, f.fractional);
+            g.setFont(f.font);
+            g.setColor(f.color);
+            g.drawString(s, f.pad, ascent);
+            g.dispose();
+            return new Sprite(img, -f.pad, -ascent);
+        }
+    }
+
+    /**
+     * One HUD window painted into an image and reused until its key changes.
+     * The key covers everything the window shows (and, where it's cheaper to
+     * compare than to hash, a text); the caller draws the parts that change
+     * every frame on top.
+     */
+    static final class HudLayer {
+        private static final int PAD = 2;   // room for antialiased edges outside the window
+
+        private BufferedImage img;
+        private long key;
+        private String text;
+        private boolean valid = false;
+
+        boolean stale(long key, String text) {
+            return !valid || key != this.key || !Objects.equals(text, this.text);
+        }
+
+        /** Clears the layer for a window at (x, y, w, h); paint it in panel coordinates. */
+        Graphics2D begin(long key, String text, int x, int y, int w, int h) {
+            int iw = Math.max(1, w + 2 * PAD), ih = Math.max(1, h + 2 * PAD);
+            if (img == null || img.getWidth() != iw || img.getHeight() != ih) {
+                img = new BufferedImage(iw, ih, BufferedImage.TYPE_INT_ARGB_PRE);
+            }
+            Graphics2D g = img.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, iw, ih);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(PAD - x, PAD - y);
+            this.key = key;
+            this.text = text;
+            valid = true;
+            return g;
+        }
+
+        void draw(Graphics2D g2, int x, int y) {
+            g2.drawImage(img, x - PAD, y - PAD, null);
+        }
+
+        /** Where draw(g2, x, y) puts the image. */
+        void bounds(Rectangle r, int x, int y) {
+            r.setBounds(x - PAD, y - PAD, img.getWidth(), img.getHeight());
+        }
+    }
+
+    /* ---------- Oscillator engine ---------- */
+
+    /**
+     * How TonePlayer evaluates the oscillator, envelope, Hann window and crossfade ramp.
+     * Selected at startup with -Dbuga.synth.quality=block|table|exact (default: block).
+     *
+     * TABLE is the scalar path, one stereo frame at a time. BLOCK runs each
+     * stage over a whole 512-frame block as a flat loop over primitive arrays
+     * and packs the block to PCM in one bulk put. The two use the same tables
+     * but not quite the same phase arithmetic: TABLE adds the step frame by
+     * frame, BLOCK takes phase + i·step and wraps once per block, so the PCM
+     * can differ by ±1 LSB (3 frames in a 3-minute Soft TRANSCEND render).
+     * BLOCK also keeps each phase it plays as PCM (PhaseCache): a session
+     * loops the same five phases, so from the second loop on only the
+     * crossfade, ramp and pause-fade blocks are synthesised and the rest is a
+     * copy.
+     */
+    enum SynthQuality {
+        EXACT,     // Math.sin / Math.cos and envelope math per sample (reference)
+        TABLE,     // wavetable oscillator + cached per-phase gain tables, per frame
+        BLOCK;     // TABLE, computed a block at a time
+
+        static SynthQuality fromSystemProperty() {
+            String v = System.getProperty("buga.synth.quality", "block").trim();
+            if (v.equalsIgnoreCase("exact")) return EXACT;
+            if (v.equalsIgnoreCase("table")) return TABLE;
+            return BLOCK;
+        }
+    }
+
+    /**
+     * Precomputed single-cycle table for the "rounded" tone.
+     *
+     * The rounded tone is 0.85·sin(θ) + 0.15·sin(θ/2) with θ wrapped to [0, 2π),
+     * which is periodic in 2π, so one table covers it exactly. With 4096 steps
+     * and linear interpolation the worst-case deviation from the Math.sin
+     * reference is below 3e-7 of full scale (about 0.01 LSB after the 0.30 gain
+     * at 16 bit), so rendered PCM matches EXACT mode to within ±1 LSB.
+     */
+    static final class Wavetable {
+        static final int SIZE = 4096;                  // power of two
+        private static final double TWO_PI = 2 * Math.PI;
+        private static final double IDX_PER_RAD = SIZE / TWO_PI;
+
+        // SIZE + 1 entries: the guard point avoids a wrap check when interpolating
+        private static final double[] ROUNDED = new double[SIZE + 1];
+
+        static {
+            for (int i = 0; i <= SIZE; i++) {
+                double th = TWO_PI * i / SIZE;
+                ROUNDED[i] = 0.85 * Math.sin(th) + 0.15 * Math.sin(th * 0.5);
+            }
+        }
+
+        private Wavetable() {}
+
+        /** Rounded tone at phase θ, with θ in [0, 2π]. */
+        static double rounded(double theta) {
+            double pos = theta * IDX_PER_RAD;
+            int i = (int) pos;
+            double frac = pos - i;
+            i &= SIZE - 1;
+            double a = ROUNDED[i];
+            return a + (ROUNDED[i + 1] - a) * frac;
+        }
+    }
+
+    /**
+     * Per-phase gain curves: attack/release envelope × Hann window × output gain.
+     *
+     * A phase is always one of the five SpeedMode durations under HARD_CUT or
+     * SOFT, so the curves repeat exactly; one is kept per (frames, hardCut)
+     * and reused for every later loop. Breath style does not shape the gain
+     * (it only moves the INHALE/EXHALE split), so it is not part of the key.
+     * A curve is filled a block ahead of the player (fill) rather than all at
+     * once, so a new phase never waits for a whole table (~4 MB and tens of
+     * milliseconds at TRANSCEND). A small LRU keeps memory bounded.
+     */
+    static final class EnvelopeCache {
+        private static final int SLOTS = 4;
+
+        private final int[] frames = new int[SLOTS];
+        private final boolean[] hard = new boolean[SLOTS];
+        private final float[][] tables = new float[SLOTS][];
+        private final int[] filled = new int[SLOTS];
+        private final long[] lastUse = new long[SLOTS];
+        private long useCounter = 0L;
+
+        /** The slot holding the curve, emptied for it if it is not kept; valid until the next call. */
+        int slot(int total, boolean hardCut) {
+            useCounter++;
+            int victim = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                if (tables[i] != null && frames[i] == total && hard[i] == hardCut) {
+                    lastUse[i] = useCounter;
+                    return i;
+                }
+                if (tables[i] == null || (tables[victim] != null && lastUse[i] < lastUse[victim])) {
+                    victim = i;
+                }
+            }
+            frames[victim]  = total;
+            hard[victim]    = hardCut;
+            if (tables[victim] == null || tables[victim].length != total) tables[victim] = new float[total];
+            filled[victim]  = 0;
+            lastUse[victim] = useCounter;
+            return victim;
+        }
+
+        /** The slot's curve; only the frames fill has reached are valid. */
+        float[] table(int slot) {
+            return tables[slot];
+        }
+
+        /** Makes frames [0, to) of the slot's curve valid. */
+        void fill(int slot, int to) {
+            int total = frames[slot];
+            to = Math.min(to, total);
+            if (filled[slot] >= to) return;
+            boolean hardCut = hard[slot];
+            int attack  = TonePlayer.attackFrames(total, hardCut);
+            int release = TonePlayer.releaseFrames(total, hardCut);
+            float[] t = tables[slot];
+            for (int g = filled[slot]; g < to; g++) {
+                double env  = TonePlayer.envelope(g, total, attack, release);
+                double hann = hardCut ? 1.0 : 0.5 * (1 - Math.cos(2 * Math.PI * g / Math.max(1, total - 1)));
+                t[g] = (float) (env * hann * 0.30);
+            }
+            filled[slot] = to;
+        }
+    }
+
+    /**
+     * Phases as mono 16-bit PCM, for the BLOCK path. Away from its first
+     * blocks (crossfade, ramp) and pause fades a phase's samples depend only
+     * on (hz, frames, hardCut), so each block synthBlock makes is kept here
+     * before it is blended; once a run of frames has been kept, later loops
+     * pack it straight from here. Nothing is synthesised ahead of the player,
+     * so the first loop after a mode change costs what live synthesis does.
+     * SLOTS holds one loop of phases, about 10 MB at TRANSCEND.
+     */
+    static final class PhaseCache {
+        private static final int SLOTS = PHASES.length;
+
+        private final double[] hz = new double[SLOTS];
+        private final int[] frames = new int[SLOTS];
+        private final boolean[] hard = new boolean[SLOTS];
+        private final short[][] pcm = new short[SLOTS][];
+        private final int[] filled = new int[SLOTS];
+        private final long[] lastUse = new long[SLOTS];
+        private long useCounter = 0L;
+
+        /** The slot holding the phase, emptied for it if it is not kept; valid until the next call. */
+        int slot(double phaseHz, int total, boolean hardCut) {
+            useCounter++;
+            int victim = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                if (pcm[i] != null && hz[i] == phaseHz && frames[i] == total && hard[i] == hardCut) {
+                    lastUse[i] = useCounter;
+                    return i;
+                }
+                if (pcm[i] == null || (pcm[victim] != null && lastUse[i] < lastUse[victim])) {
+                    victim = i;
+                }
+            }
+            hz[victim]      = phaseHz;
+            frames[victim]  = total;
+            hard[victim]    = hardCut;
+            if (pcm[victim] == null || pcm[victim].length != total) pcm[victim] = new short[total];
+            filled[victim]  = 0;
+            lastUse[victim] = useCounter;
+            return victim;
+        }
+
+        short[] pcm(int slot) {
+            return pcm[slot];
+        }
+
+        /** Frames [0, filled) of the slot are kept. */
+        int filled(int slot) {
+            return filled[slot];
+        }
+
+        /** Keeps frames [g0, g0 + n) from mix, as packBlock rounds them, where they extend the kept run. */
+        void keep(int slot, int g0, double[] mix, int n) {
+            int from = filled[slot];
+            if (from < g0 || from >= g0 + n) return;
+            short[] out = pcm[slot];
+            for (int g = from; g < g0 + n; g++) {
+                double v = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[g - g0] * 32767));
+                out[g] = (short) Math.floor(v + 0.5);
+            }
+            filled[slot] = g0 + n;
+        }
+    }
+
+    /* ---------- Pause gate ---------- */
+
+    /**
+     * The session's paused flag. Threads that have nothing to do while paused
+     * park on it in awaitResume() instead of polling; set(false) or wakeAll()
+     * releases them.
+     */
+    static final class PauseGate {
+        private volatile boolean paused;
+
+        PauseGate(boolean initiallyPaused) {
+            paused = initiallyPaused;
+        }
+
+        boolean get() {
+            return paused;
+        }
+
+        synchronized void set(boolean nowPaused) {
+            paused = nowPaused;
+            if (!nowPaused) notifyAll();
+        }
+
+        /** Wake waiters so they can re-check an interrupt flag. */
+        synchronized void wakeAll() {
+            notifyAll();
+        }
+
+        synchronized void awaitResume(AtomicBoolean interrupt) {
+            while (paused && !interrupt.get()) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /* ---------- Audio sinks ---------- */
+
+    /**
+     * Where TonePlayer sends its 16-bit stereo PCM. Chosen at startup with
+     * -Dbuga.audio.sink=line|wav|null (default: line):
+     *   line — the sound card (SourceDataLine)
+     *   wav  — streaming WAV file, path from -Dbuga.audio.file (default: session.wav)
+     *   null — discards audio, only counts frames
+     * The wav and null sinks are held to real time unless -Dbuga.audio.paced=false,
+     * so the visuals stay in step when there is no device clock.
+     *
+     * The line sink is fed through a RingBufferSink with its own writer thread;
+     * -Dbuga.audio.aheadMs sets how far synthesis may run ahead (default: 150,
+     * 0 writes to the line directly from the phase loop as before).
+     */
+    interface AudioSink extends AutoCloseable {
+        void write(byte[] buf, int off, int len);
+
+        /** Frames accepted so far. */
+        long framesWritten();
+
+        /**
+         * Frames actually played so far — the device clock for the line sink,
+         * elapsed real time for paced sinks. Never ahead of framesWritten().
+         */
+        default long framePosition() {
+            return framesWritten();
+        }
+
+        /**
+         * The stream stops on purpose (session paused): let what was written
+         * play out, then stop the device. A gap here is not an underrun.
+         */
+        default void pause() {}
+
+        /** The stream continues after pause(). */
+        default void resume() {}
+
+        /**
+         * Drops audio that was written but has not reached the device yet,
+         * keeping at least everything before frame keepFrom, and returns the
+         * new framesWritten(). Sinks that buffer nothing keep it all.
+         */
+        default long discardUnplayed(long keepFrom) {
+            return framesWritten();
+        }
+
+        @Override
+        void close();
+
+        static AudioSink fromSystemProperties(AudioFormat fmt) throws LineUnavailableException, IOException {
+            String kind  = System.getProperty("buga.audio.sink", "line").trim().toLowerCase();
+            boolean paced = !"false".equalsIgnoreCase(System.getProperty("buga.audio.paced", "true").trim());
+            int aheadMs = Integer.getInteger("buga.audio.aheadMs", 150);
+            switch (kind) {
+                case "wav":
+                    Path out = Paths.get(System.getProperty("buga.audio.file", "session.wav"));
+                    return new WavFileSink(out, fmt, paced);
+                case "null":
+                    return new NullSink(fmt, paced);
+                case "line":
+                default:
+                    LineSink line = new LineSink(fmt);
+                    return aheadMs > 0 ? new RingBufferSink(line, fmt, aheadMs) : line;
+            }
+        }
+    }
+
+    /**
+     * Lock-free single-producer / single-consumer ring between synthesis and a
+     * blocking sink. The phase loop writes PCM into a preallocated byte ring and
+     * never touches the device; a dedicated "audio-writer" thread drains the ring
+     * into the downstream sink, so a GC pause or scheduling hiccup in synthesis is
+     * absorbed by up to aheadMs of buffered audio.
+     *
+     * Positions are monotonically increasing byte counters published with
+     * lazySet (release) and read with get (acquire). Either side parks briefly
+     * when it has nothing to do and is unparked by the other. While paused the
+     * writer plays out what is buffered, pauses the downstream sink and parks
+     * until resume(), so a paused session costs no CPU.
+     *
+     * discardUnplayed() is the one place tail moves backwards. The producer
+     * posts a request and waits; the writer, between chunks, cuts tail back to
+     * what it has already handed on and acknowledges, so the two never touch
+     * tail at the same time.
+     */
+    static final class RingBufferSink implements AudioSink {
+        private static final long PARK_NANOS = 2_000_000L;
+
+        private final AudioSink downstream;
+        private final byte[] ring;
+        private final int mask;
+        private final int frameSize;
+        private final int chunkBytes;
+
+        private final AtomicLong head = new AtomicLong();   // next byte the writer consumes
+        private final AtomicLong tail = new AtomicLong();   // next byte synthesis produces
+        private final AtomicLong underruns = new AtomicLong();
+        private volatile long maxFillBytes = 0L;
+
+        private volatile boolean pauseWanted = true;    // idle until the first write
+        private volatile boolean closing = false;
+        private volatile boolean producerParked = false;
+        private volatile boolean consumerParked = false;
+        private volatile long discardFrom = -1L;    // producer -> writer: cut tail back to here (bytes)
+        private volatile long discardedTo = -1L;    // writer -> producer: tail after the cut
+        private volatile Thread producer;
+        private final Thread writer;
+
+        RingBufferSink(AudioSink downstream, AudioFormat fmt, int aheadMs) {
+            this.downstream = downstream;
+            this.frameSize = fmt.getFrameSize();
+            long wanted = (long) (fmt.getFrameRate() * aheadMs / 1000.0) * frameSize;
+            int cap = Integer.highestOneBit((int) Math.max(4096L, Math.min(1L << 24, wanted)) - 1) << 1;
+            this.ring = new byte[cap];
+            this.mask = cap - 1;
+            this.chunkBytes = Math.min(cap / 4, 1024 * frameSize);
+            this.writer = new Thread(this::drainLoop, "audio-writer");
+            writer.setDaemon(true);
+            writer.setPriority(Thread.MAX_PRIORITY);
+            writer.start();
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            if (producer == null) producer = Thread.currentThread();
+            if (pauseWanted) resume();
+            while (len > 0) {
+                long t = tail.get();
+                int free = ring.length - (int) (t - head.get());
+                if (free == 0) {
+                    producerParked = true;
+                    if (ring.length - (int) (tail.get() - head.get()) == 0) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    producerParked = false;
+                    continue;
+                }
+                int n = Math.min(len, free);
+                int pos = (int) (t & mask);
+                int first = Math.min(n, ring.length - pos);
+                System.arraycopy(buf, off, ring, pos, first);
+                if (n > first) System.arraycopy(buf, off + first, ring, 0, n - first);
+                tail.lazySet(t + n);
+                off += n;
+                len -= n;
+                if (consumerParked) LockSupport.unpark(writer);
+            }
+        }
+
+        private void drainLoop() {
+            // After starting or starving, wait until half the margin is buffered again
+            int primeBytes = ring.length / 2;
+            boolean starved = true;
+            boolean downstreamPaused = false;
+            boolean refilling = false;   // ring emptied on purpose by a discard
+            while (true) {
+                long h = head.get();
+                long cut = discardFrom;
+                if (cut >= 0) {
+                    // The producer is waiting in discardUnplayed(), so tail is ours to move
+                    long keep = Math.min(tail.get(), Math.max(h, cut));
+                    tail.set(keep);
+                    discardFrom = -1L;
+                    discardedTo = keep;
+                    refilling = !starved;
+                    Thread p = producer;
+                    if (p != null) LockSupport.unpark(p);
+                    continue;
+                }
+                int avail = (int) (tail.get() - h);
+                if (avail == 0 && closing) break;
+                if (avail == 0 && pauseWanted) {
+                    // Everything before the pause has been handed on: stop the device, sleep until resume()
+                    if (!downstreamPaused) {
+                        downstream.pause();
+                        downstreamPaused = true;
+                    }
+                    starved = true;
+                    consumerParked = true;
+                    if (pauseWanted && !closing && tail.get() == h) LockSupport.park(this);
+                    consumerParked = false;
+                    continue;
+                }
+                if (downstreamPaused) {
+                    downstream.resume();
+                    downstreamPaused = false;
+                }
+                if (avail == 0 && refilling) {
+                    // Synthesis refills right after a discard; don't count it or wait to prime
+                    consumerParked = true;
+                    if (tail.get() == h && discardFrom < 0 && !closing) LockSupport.parkNanos(this, PARK_NANOS);
+                    consumerParked = false;
+                    continue;
+                }
+                if (avail == 0 || (starved && avail < primeBytes && !pauseWanted && !closing)) {
+                    if (avail == 0 && !starved) underruns.incrementAndGet();
+                    starved = true;
+                    consumerParked = true;
+                    if (tail.get() - h == avail && !closing) LockSupport.parkNanos(this, PARK_NANOS);
+                    consumerParked = false;
+                    continue;
+                }
+                starved = false;
+                refilling = false;
+                if (avail > maxFillBytes) maxFillBytes = avail;
+                int pos = (int) (h & mask);
+                int n = Math.min(avail, Math.min(chunkBytes, ring.length - pos));
+                downstream.write(ring, pos, n);
+                head.lazySet(h + n);
+                Thread p = producer;
+                if (producerParked && p != null) LockSupport.unpark(p);
+            }
+        }
+
+        @Override
+        public long framesWritten() {
+            return tail.get() / frameSize;
+        }
+
+        @Override
+        public long framePosition() {
+            return downstream.framePosition();
+        }
+
+        @Override
+        public long discardUnplayed(long keepFrom) {
+            if (producer == null) producer = Thread.currentThread();
+            discardedTo = -1L;
+            discardFrom = keepFrom * frameSize;
+            LockSupport.unpark(writer);
+            // The writer answers between chunks, so this waits at most one chunk
+            while (discardedTo < 0 && writer.isAlive()) {
+                producerParked = true;
+                if (discardedTo < 0) LockSupport.parkNanos(this, PARK_NANOS);
+                producerParked = false;
+            }
+            discardFrom = -1L;
+            return framesWritten();
+        }
+
+        /** Frames buffered between synthesis and the device right now. */
+        int fillFrames() {
+            return (int) (tail.get() - head.get()) / frameSize;
+        }
+
+        int capacityFrames() {
+            return ring.length / frameSize;
+        }
+
+        int maxFillFrames() {
+            return (int) (maxFillBytes / frameSize);
+        }
+
+        /** Times the writer found the ring empty while audio was meant to be flowing. */
+        long underruns() {
+            return underruns.get();
+        }
+
+        @Override
+        public void pause() {
+            pauseWanted = true;
+            LockSupport.unpark(writer);
+        }
+
+        @Override
+        public void resume() {
+            pauseWanted = false;
+            LockSupport.unpark(writer);
+        }
+
+        @Override
+        public void close() {
+            closing = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(2000);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Audio ring: " + underruns() + " underruns, peak fill "
+                    + maxFillFrames() + "/" + capacityFrames() + " frames");
+            downstream.close();
+        }
+    }
+
+    /** The sound card. */
+    static final class LineSink implements AudioSink {
+        final SourceDataLine line;
+        private final int frameSize;
+        private volatile long frames = 0L;      // written by the ring's writer thread, read by the EDT
+        private volatile boolean stopped = false;
+
+        LineSink(AudioFormat fmt) throws LineUnavailableException {
+            DataLine.Info info = new DataLine.Info(SourceDataLine.class, fmt);
+            line = (SourceDataLine) AudioSystem.getLine(info);
+            int preferBuffer = 4096;
+            line.open(fmt, preferBuffer);
+            line.start();
+            frameSize = fmt.getFrameSize();
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            line.write(buf, off, len);
+            frames += len / frameSize;
+        }
+
+        @Override
+        public long framesWritten() {
+            return frames;
+        }
+
+        @Override
+        public long framePosition() {
+            return Math.min(frames, line.getLongFramePosition());
+        }
+
+        @Override
+        public void pause() {
+            if (stopped) return;
+            line.drain();
+            line.stop();
+            stopped = true;
+        }
+
+        @Override
+        public void resume() {
+            if (!stopped) return;
+            line.start();
+            stopped = false;
+        }
+
+        @Override
+        public void close() {
+            // drain() on a stopped line would wait for a start that never comes
+            if (!stopped) {
+                try { line.drain(); } catch (Exception ignore) {}
+            }
+            line.stop();
+            line.close();
+        }
+    }
+
+    /**
+     * Holds a writer back to real time (plus a small lead), the way a
+     * sound card's buffer would, for sinks that have no device clock.
+     */
+    static final class RealtimePacer {
+        private static final long LEAD_NANOS = 50_000_000L;
+
+        private final double nanosPerFrame;
+        private volatile long startNanos = 0L;
+        private volatile long frames = 0L;
+        private volatile long pausedAtNanos = 0L;
+
+        RealtimePacer(AudioFormat fmt) {
+            nanosPerFrame = 1e9 / fmt.getFrameRate();
+        }
+
+        void advance(int n) {
+            long now = System.nanoTime();
+            if (startNanos == 0L) startNanos = now;
+            frames += n;
+            long due = startNanos + (long) (frames * nanosPerFrame) - LEAD_NANOS;
+            if (due > now) LockSupport.parkNanos(due - now);
+        }
+
+        /** Frames that a real device would have played by now. */
+        long position() {
+            long start = startNanos;
+            if (start == 0L) return 0L;
+            long now = (pausedAtNanos != 0L) ? pausedAtNanos : System.nanoTime();
+            return Math.min(frames, (long) ((now - start) / nanosPerFrame));
+        }
+
+        void pause() {
+            if (pausedAtNanos == 0L) pausedAtNanos = System.nanoTime();
+        }
+
+        /** Shift the time origin so the pause is not counted as played time. */
+        void resume() {
+            if (pausedAtNanos == 0L) return;
+            if (startNanos != 0L) startNanos += System.nanoTime() - pausedAtNanos;
+            pausedAtNanos = 0L;
+        }
+    }
+
+    /** Streams PCM into a WAV file; the header sizes are patched on close. */
+    static final class WavFileSink implements AudioSink {
+        private static final int HEADER_BYTES = 44;
+
+        private final Path path;
+        private final AudioFormat fmt;
+        private final FileChannel ch;
+        private final ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+        private final RealtimePacer pacer;
+        private long dataBytes = 0L;
+
+        WavFileSink(Path path, AudioFormat fmt, boolean paced) throws IOException {
+            this.path = path;
+            this.fmt = fmt;
+            this.pacer = paced ? new RealtimePacer(fmt) : null;
+            ch = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ch.write(header(0L));
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            int frames = len / fmt.getFrameSize();
+            dataBytes += len;
+            while (len > 0) {
+                int n = Math.min(len, pending.remaining());
+                pending.put(buf, off, n);
+                off += n;
+                len -= n;
+                if (!pending.hasRemaining()) flushPending();
+            }
+            if (pacer != null) pacer.advance(frames);
+        }
+
+        @Override
+        public long framesWritten() {
+            return dataBytes / fmt.getFrameSize();
+        }
+
+        @Override
+        public long framePosition() {
+            return pacer != null ? pacer.position() : framesWritten();
+        }
+
+        @Override
+        public void pause() {
+            if (pacer != null) pacer.pause();
+        }
+
+        @Override
+        public void resume() {
+            if (pacer != null) pacer.resume();
+        }
+
+        private void flushPending() {
+            pending.flip();
+            try {
+                while (pending.hasRemaining()) ch.write(pending);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            pending.clear();
+        }
+
+        private ByteBuffer header(long dataLen) {
+            // RIFF sizes are 32-bit; anything past ~6.7 h of 44.1 kHz stereo is clamped
+            long riff = Math.min(0xFFFFFFFFL, dataLen + HEADER_BYTES - 8);
+            long data = Math.min(0xFFFFFFFFL, dataLen);
+            int channels = fmt.getChannels();
+            int sampleRate = (int) fmt.getSampleRate();
+            int bits = fmt.getSampleSizeInBits();
+            int blockAlign = fmt.getFrameSize();
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            h.put(new byte[]{'R', 'I', 'F', 'F'}).putInt((int) riff);
+            h.put(new byte[]{'W', 'A', 'V', 'E'});
+            h.put(new byte[]{'f', 'm', 't', ' '}).putInt(16);
+            h.putShort((short) 1);                       // PCM
+            h.putShort((short) channels);
+            h.putInt(sampleRate);
+            h.putInt(sampleRate * blockAlign);
+            h.putShort((short) blockAlign);
+            h.putShort((short) bits);
+            h.put(new byte[]{'d', 'a', 't', 'a'}).putInt((int) data);
+            h.flip();
+            return h;
+        }
+
+        @Override
+        public void close() {
+            try {
+                flushPending();
+                ch.write(header(dataBytes), 0L);
+                ch.close();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            System.out.println("Wrote " + framesWritten() + " frames to " + path.toAbsolutePath());
+        }
+    }
+
+    /** Discards audio and counts frames; reports throughput on close. */
+    static final class NullSink implements AudioSink {
+        private final AudioFormat fmt;
+        private final RealtimePacer pacer;
+        private final long openedNanos = System.nanoTime();
+        private long frames = 0L;
+
+        NullSink(AudioFormat fmt, boolean paced) {
+            this.fmt = fmt;
+            this.pacer = paced ? new RealtimePacer(fmt) : null;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            int n = len / fmt.getFrameSize();
+            frames += n;
+            if (pacer != null) pacer.advance(n);
+        }
+
+        @Override
+        public long framesWritten() {
+            return frames;
+        }
+
+        @Override
+        public long framePosition() {
+            return pacer != null ? pacer.position() : frames;
+        }
+
+        @Override
+        public void pause() {
+            if (pacer != null) pacer.pause();
+        }
+
+        @Override
+        public void resume() {
+            if (pacer != null) pacer.resume();
+        }
+
+        /** Frames per second of wall time since the sink was opened. */
+        double framesPerSecond() {
+            double secs = (System.nanoTime() - openedNanos) / 1e9;
+            return secs > 0 ? frames / secs : 0.0;
+        }
+
+        @Override
+        public void close() {
+            System.out.printf("Null sink: %d frames, %.0f frames/s%n", frames, framesPerSecond());
+        }
+    }
+
+    /* ---------- Audio clock ---------- */
+
+    /** Where playback is inside the phase loop, as heard (not as synthesised). */
+    static final class PhasePosition {
+        long seq;            // phase number since the player opened
+        int  idx;            // index into PHASES
+        int  epoch;          // Panel mode epoch the phase was started under
+        int  frameInPhase;   // frames of this phase already played
+        int  phaseFrames;    // length of this phase in frames
+    }
+
+    /**
+     * Maps the sink's played-frame position back to the phase being heard.
+     *
+     * The phase loop marks the stream frame where each phase starts; the
+     * renderer asks which marker the device clock has passed. Markers live in
+     * a small ring (synthesis runs at most a fraction of a phase ahead of
+     * playback), written by one thread. Each is an immutable Marker published
+     * through the ring's volatile slot, so a reader sees all of one or none of
+     * it, and its sequence number shows whether the slot has been reused since.
+     * mark() allocates one Marker per phase; locate() allocates nothing and
+     * neither side locks.
+     */
+    static final class PhaseClock {
+        private static final int SLOTS = 16;
+
+        private static final class Marker {
+            final long seq;
+            final long startFrame;
+            final int idx, phaseFrames, epoch;
+
+            Marker(long seq, long startFrame, int idx, int phaseFrames, int epoch) {
+                this.seq = seq;
+                this.startFrame = startFrame;
+                this.idx = idx;
+                this.phaseFrames = phaseFrames;
+                this.epoch = epoch;
+            }
+        }
+
+        private final AtomicReferenceArray<Marker> ring = new AtomicReferenceArray<>(SLOTS);
+        private volatile long count = 0L;
+
+        /** Phase loop only: the next frame written to the sink starts phase idx. */
+        void mark(long streamFrame, int idx, int phaseFrames, int epoch) {
+            long n = count;
+            ring.set((int) (n % SLOTS), new Marker(n, streamFrame, idx, phaseFrames, epoch));
+            count = n + 1;
+        }
+
+        /** Fills out with the phase containing playedFrame; false if nothing has played yet. */
+        boolean locate(long playedFrame, PhasePosition out) {
+            long n = count;
+            for (long k = n - 1; k >= 0 && k > n - SLOTS; k--) {
+                Marker m = ring.get((int) (k % SLOTS));
+                if (m == null || m.seq != k) return false;   // slot was reused under us
+                if (m.startFrame > playedFrame) continue;
+                out.seq = k;
+                out.idx = m.idx;
+                out.epoch = m.epoch;
+                out.phaseFrames = m.phaseFrames;
+                out.frameInPhase = (int) Math.min(m.phaseFrames, playedFrame - m.startFrame);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /* ---------- Audio player (stereo mono-style) ---------- */
+    static class TonePlayer implements AutoCloseable {
+        static final float SR = 44100f;
+        static final AudioFormat FORMAT = new AudioFormat(SR, 16, 2, true, false);
+        final AudioSink sink;
+        final SynthQuality quality;
+        final PhaseClock clock = new PhaseClock();
+
+        private double lastOutL = 0.0, lastOutR = 0.0;
+        private boolean haveLastOut = false;
+        private static final int BLOCK_FRAMES = 512;
+        private static final int RAMP_SAMPLES = 256;
+        private static final double MICRO_ATTACK_MS  = 2.0;
+        private static final double MICRO_RELEASE_MS = 2.0;
+
+        // Raised-cosine crossfade from the previous phase's last sample
+        private static final double[] RAMP = new double[RAMP_SAMPLES];
+        static {
+            for (int i = 0; i < RAMP_SAMPLES; i++) {
+                RAMP[i] = 0.5 - 0.5 * Math.cos(Math.PI * i / (RAMP_SAMPLES - 1));
+            }
+        }
+
+        // ~10 ms raised-cosine fade used when pausing mid-phase and when resuming
+        private static final int PAUSE_FADE_FRAMES = 441;
+        private static final double[] PAUSE_FADE = new double[PAUSE_FADE_FRAMES];
+        static {
+            for (int i = 0; i < PAUSE_FADE_FRAMES; i++) {
+                PAUSE_FADE[i] = 0.5 - 0.5 * Math.cos(Math.PI * i / (PAUSE_FADE_FRAMES - 1));
+            }
+        }
+
+        // ~23 ms raised-cosine crossfade from a phase cut short by a mode change
+        private static final int XFADE_FRAMES = 1024;
+        private static final double[] XFADE = new double[XFADE_FRAMES];
+        static {
+            for (int i = 0; i < XFADE_FRAMES; i++) {
+                XFADE[i] = 0.5 - 0.5 * Math.cos(Math.PI * i / (XFADE_FRAMES - 1));
+            }
+        }
+
+        // The cut phase's oscillator keeps running under the next phase while it fades out
+        private double tailPhase = 0.0, tailStep = 0.0, tailAmp = 0.0;
+        private int tailPos = XFADE_FRAMES;
+
+        private long runPhases = 0L;
+
+        private final EnvelopeCache envelopes = new EnvelopeCache();
+        private final PhaseCache phases = new PhaseCache();
+        private final byte[] blockBuf = new byte[BLOCK_FRAMES * 4];
+
+        // BLOCK path: mono mix for the block, then L|R packed frames viewed over blockBuf
+        private final double[] mixBuf = new double[BLOCK_FRAMES];
+        private final int[] frameBuf = new int[BLOCK_FRAMES];
+        private final IntBuffer blockFrames = ByteBuffer.wrap(blockBuf).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+        TonePlayer() throws LineUnavailableException, IOException {
+            this(AudioSink.fromSystemProperties(FORMAT), SynthQuality.fromSystemProperty());
+        }
+
+        TonePlayer(AudioSink sink, SynthQuality quality) {
+            this.sink = sink;
+            this.quality = quality;
+        }
+
+        static int phaseFrames(int ms) {
+            return (int) ((ms / 1000.0) * SR);
+        }
+
+        static long framesToNanos(long frames) {
+            return (long) (frames * (1e9 / SR));
+        }
 
-                if (dev.isFullScreenSupported()) {
-                    dev.setFullScreenWindow(frame);
-                } else {
-                    frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
-                }
+        static long framesToMillis(long frames) {
+            return (long) (frames * (1000.0 / SR));
+        }
 
-                isFullScreen = true;
+        /**
+         * Frames in the next phase of the current run. Boundaries are placed at
+         * round(n * ms * SR / 1000) from the start of the run, so lengths may
+         * differ by a frame but the n-th boundary is never off by more than half
+         * a sample, however long the session.
+         */
+        int nextPhaseFrames(int ms) {
+            long n = runPhases++;
+            long from = Math.round(n * (ms * (double) SR) / 1000.0);
+            long to   = Math.round((n + 1) * (ms * (double) SR) / 1000.0);
+            return (int) (to - from);
+        }
 
-                // Make sure it doesn't end up behind other windows
-                bringToFrontAndFocus();
+        /** The loop restarts from Origin: phase boundaries count from here. */
+        void restartRun() {
+            runPhases = 0L;
+        }
 
-            } catch (Exception ex) {
-                // Fallback: just maximize
-                frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
-                frame.setVisible(true);
-                isFullScreen = true;
+        /** Called by the phase loop right before it plays phase idx. */
+        void markPhaseStart(int idx, int frames, int epoch) {
+            clock.mark(sink.framesWritten(), idx, frames, epoch);
+        }
 
-                bringToFrontAndFocus();
-            }
+        /**
+         * Sample-accurate position of what the listener hears right now,
+         * read from the sink's device clock. False until audio has played.
+         */
+        boolean currentPhasePosition(PhasePosition out) {
+            return clock.locate(sink.framePosition(), out);
         }
 
-        private void exitFullScreen() {
-            try {
-                // Release fullscreen on the device if we're in it
-                if (fsDevice != null && fsDevice.getFullScreenWindow() == frame) {
-                    fsDevice.setFullScreenWindow(null);
-                }
-            } catch (Exception ignore) {
-            }
+        static int attackFrames(int total, boolean hardCut) {
+            int minAtk = (int) Math.max(1, Math.round(SR * MICRO_ATTACK_MS / 1000.0));
+            return hardCut ? minAtk
+                    : Math.max(minAtk, Math.min((int) (0.08 * SR), Math.max(minAtk, total / 3)));
+        }
 
-            // Required to safely change undecorated flag
-            frame.dispose();
-            frame.setUndecorated(wasDecorated);
-            frame.setResizable(true);
+        static int releaseFrames(int total, boolean hardCut) {
+            int minRel = (int) Math.max(1, Math.round(SR * MICRO_RELEASE_MS / 1000.0));
+            return hardCut ? minRel
+                    : Math.min((int) (0.25 * SR), Math.max(minRel, total / 3));
+        }
 
-            if (prevBounds != null) {
-                frame.setBounds(prevBounds);
+        /**
+         * Stops the sink and parks the calling thread until the session is
+         * resumed (or shut down), then restarts the sink. Costs no CPU while paused.
+         */
+        void idleWhilePaused(PauseGate paused, AtomicBoolean interrupt) {
+            sink.pause();
+            paused.awaitResume(interrupt);
+            sink.resume();
+        }
+
+        // Linear attack / release envelope at frame g of a phase
+        static double envelope(int g, int total, int attack, int release) {
+            if (g < attack) {
+                return g / (double) Math.max(1, attack);
+            } else if (g > total - release) {
+                return (total - g) / (double) Math.max(1, release);
             } else {
-                frame.setExtendedState(JFrame.NORMAL);
+                return 1.0;
             }
+        }
 
-            frame.setVisible(true);
-            isFullScreen = false;
+        /*
+         * BLOCK path. Each stage is its own loop over the block; the output is
+         * the mono mix, duplicated to L and R when packing, as the per-frame
+         * path writes it (to within ±1 LSB, see SynthQuality).
+         */
 
-            // Again, make sure it stays visible and focused
-            bringToFrontAndFocus();
+        /** Oscillator × gain table for frames [g0, g0 + n) into mixBuf; returns the phase after the block. */
+        private double synthBlock(int g0, int n, double phase, double step, float[] gain) {
+            double[] mix = mixBuf;
+            for (int i = 0; i < n; i++) {
+                mix[i] = Wavetable.rounded(phase + i * step) * gain[g0 + i];
+            }
+            return (phase + n * step) % (2 * Math.PI);
         }
 
-        // Helper used by both enter/exit to avoid the "window vanished" feeling
-        private void bringToFrontAndFocus() {
-            frame.setAlwaysOnTop(true);
-            frame.toFront();
-            frame.requestFocus();
-            frame.setAlwaysOnTop(false);
+        // Crossfade from the tail of a cut phase, or from the previous phase's last sample
+        private void blendBlockStart(int g0, int n) {
+            double[] mix = mixBuf;
+            if (tailPos < XFADE_FRAMES) {
+                int m = Math.min(n, XFADE_FRAMES - tailPos);
+                double ph = tailPhase, st = tailStep, amp = tailAmp;
+                for (int i = 0; i < m; i++) {
+                    double old = Wavetable.rounded(ph + i * st) * amp;
+                    double t = XFADE[tailPos + i];
+                    mix[i] = old * (1 - t) + mix[i] * t;
+                }
+                tailPhase = (ph + m * st) % (2 * Math.PI);
+                tailPos += m;
+            } else if (haveLastOut && g0 < RAMP_SAMPLES) {
+                int m = Math.min(n, RAMP_SAMPLES - g0);
+                double last = lastOutL;
+                for (int i = 0; i < m; i++) {
+                    double t = RAMP[g0 + i];
+                    mix[i] = last * (1 - t) + mix[i] * t;
+                }
+            }
         }
-    }
 
-    /* ---------- Audio player (stereo mono-style) ---------- */
-    static class TonePlayer implements AutoCloseable {
-        final float SR = 44100f;
-        final AudioFormat fmt = new AudioFormat(SR, 16, 2, true, false);
-        final SourceDataLine line;
+        // Pause fade over the block; returns the new fade position
+        private int duckBlock(int n, int dir, int pos) {
+            double[] mix = mixBuf;
+            int m = Math.min(n, PAUSE_FADE_FRAMES - pos);
+            if (dir > 0) {
+                for (int i = 0; i < m; i++) mix[i] *= PAUSE_FADE[pos + i];
+            } else {
+                for (int i = 0; i < m; i++) mix[i] *= 1 - PAUSE_FADE[pos + i];
+            }
+            return pos + m;
+        }
 
-        private double lastOutL = 0.0, lastOutR = 0.0;
-        private boolean haveLastOut = false;
-        private static final int RAMP_SAMPLES = 256;
-        private static final double MICRO_ATTACK_MS  = 2.0;
-        private static final double MICRO_RELEASE_MS = 2.0;
+        // Frames [g0, g0 + n) of a cached phase, packed as packBlock would
+        private void packCached(short[] pcm, int g0, int n) {
+            int[] fr = frameBuf;
+            for (int i = 0; i < n; i++) {
+                int s = pcm[g0 + i];
+                fr[i] = (s & 0xFFFF) | (s << 16);
+            }
+            blockFrames.clear();
+            blockFrames.put(fr, 0, n);
+        }
 
-        TonePlayer() throws LineUnavailableException {
-            DataLine.Info info = new DataLine.Info(SourceDataLine.class, fmt);
-            line = (SourceDataLine) AudioSystem.getLine(info);
-            int preferBuffer = 4096;
-            line.open(fmt, preferBuffer);
-            line.start();
+        // Clamp, round and pack the mono mix as little-endian L|R frames into blockBuf
+        private void packBlock(int n) {
+            double[] mix = mixBuf;
+            int[] fr = frameBuf;
+            for (int i = 0; i < n; i++) {
+                double v = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i] * 32767));
+                int s = (int) Math.floor(v + 0.5);
+                fr[i] = (s & 0xFFFF) | (s << 16);
+            }
+            blockFrames.clear();
+            blockFrames.put(fr, 0, n);
         }
 
+        /**
+         * Plays one phase. If cut is raised mid-phase the phase ends at the next
+         * block: audio not yet heard is taken back from the sink and the next
+         * phase crossfades from the tone exactly where the listener left it.
+         */
         void playSimple(double hz,
-                        int ms,
+                        int total,
                         double inhaleFrac,
-                        AtomicBoolean paused,
+                        PauseGate paused,
                         AtomicBoolean interrupt,
+                        AtomicBoolean cut,
                         boolean hardCut,
                         Runnable onStart) {
 
-            int total = (int) ((ms / 1000.0) * SR);
-
-            int minAtk = (int) Math.max(1, Math.round(SR * MICRO_ATTACK_MS / 1000.0));
-            int minRel = (int) Math.max(1, Math.round(SR * MICRO_RELEASE_MS / 1000.0));
+            long startFrame = sink.framesWritten();
 
-            int attack  = hardCut ? minAtk
-                    : Math.max(minAtk, Math.min((int) (0.08 * SR), Math.max(minAtk, total / 3)));
-            int release = hardCut ? minRel
-                    : Math.min((int) (0.25 * SR), Math.max(minRel, total / 3));
+            int attack  = attackFrames(total, hardCut);
+            int release = releaseFrames(total, hardCut);
 
             double step  = 2 * Math.PI * hz / SR;
             double phase = 0.0;
-
-            byte[] buf = new byte[512 * 4];
+            boolean exact = (quality == SynthQuality.EXACT);
+            boolean block = (quality == SynthQuality.BLOCK);
+            int curve = exact ? -1 : envelopes.slot(total, hardCut);
+            float[] gain = exact ? null : envelopes.table(curve);
+            int kept = block ? phases.slot(hz, total, hardCut) : -1;
+            short[] pcm = block ? phases.pcm(kept) : null;
+
+            byte[] buf = blockBuf;
             int sent = 0;
             double outL = 0.0, outR = 0.0;
             boolean started = false;
 
-            while (sent < total && !interrupt.get()) {
-                int frames = Math.min(512, total - sent);
-                int bi = 0;
+            // Pause fade: -1 fading out towards a pause, +1 fading back in, 0 none
+            int duckDir = 0;
+            int duckPos = 0;
 
-                for (int i = 0; i < frames; i++) {
-                    if (paused.get()) {
-                        for (int z = 0; z < 4; z++) buf[bi++] = 0;
+            while (sent < total && !interrupt.get()) {
+                if (cut.get()) {
+                    if (started) {
+                        double duck = (duckDir == 0) ? 1.0
+                                : (duckDir > 0) ? PAUSE_FADE[duckPos] : 1 - PAUSE_FADE[Math.min(duckPos, PAUSE_FADE_FRAMES - 1)];
+                        long played = sink.discardUnplayed(startFrame);
+                        int g = (int) Math.max(0, Math.min(sent, played - startFrame));
+                        if (!exact) envelopes.fill(curve, g + 1);
+                        double amp = exact
+                                ? envelope(g, total, attack, release)
+                                  * (hardCut ? 1.0 : 0.5 * (1 - Math.cos(2 * Math.PI * g / Math.max(1, total - 1))))
+                                  * 0.30
+                                : gain[Math.min(g, total - 1)];
+                        tailPhase = (g * step) % (2 * Math.PI);
+                        tailStep = step;
+                        tailAmp = amp * duck;
+                        tailPos = 0;
+                        haveLastOut = false;
+                    }
+                    return;
+                }
+                if (paused.get() && duckDir >= 0) {
+                    if (!started) {
+                        // Nothing audible yet, so there is nothing to fade
+                        idleWhilePaused(paused, interrupt);
                         continue;
                     }
+                    // Mirror an unfinished fade-in so the gain stays continuous
+                    duckPos = (duckDir > 0) ? PAUSE_FADE_FRAMES - 1 - duckPos : 0;
+                    duckDir = -1;
+                }
 
+                int frames = Math.min(BLOCK_FRAMES, total - sent);
+                if (duckDir < 0) frames = Math.min(frames, PAUSE_FADE_FRAMES - duckPos);
+                if (!exact) envelopes.fill(curve, sent + frames);
+
+                if (block) {
                     if (!started) {
                         started = true;
                         if (onStart != null) onStart.run();
                     }
-
-                    int g = sent + i;
-
-                    double env;
-                    if (g < attack) {
-                        env = g / (double) Math.max(1, attack);
-                    } else if (g > total - release) {
-                        env = (total - g) / (double) Math.max(1, release);
+                    if (tailPos < XFADE_FRAMES || (haveLastOut && sent < RAMP_SAMPLES) || duckDir != 0
+                            || phases.filled(kept) < sent + frames) {
+                        phase = synthBlock(sent, frames, phase, step, gain);
+                        phases.keep(kept, sent, mixBuf, frames);
+                        blendBlockStart(sent, frames);
+                        if (duckDir != 0) {
+                            duckPos = duckBlock(frames, duckDir, duckPos);
+                            if (duckPos == PAUSE_FADE_FRAMES && duckDir > 0) duckDir = 0;
+                        }
+                        packBlock(frames);
+                        outL = outR = mixBuf[frames - 1];
                     } else {
-                        env = 1.0;
+                        packCached(pcm, sent, frames);
+                        outL = outR = Wavetable.rounded(phase + (frames - 1) * step) * gain[sent + frames - 1];
+                        phase = (phase + frames * step) % (2 * Math.PI);
                     }
+                } else {
+                    int bi = 0;
+                    for (int i = 0; i < frames; i++) {
+                        if (!started) {
+                            started = true;
+                            if (onStart != null) onStart.run();
+                        }
 
-                    double hann = hardCut ? 1.0 : 0.5 * (1 - Math.cos(2 * Math.PI * g / Math.max(1, total - 1)));
-
-                    double pure = Math.sin(phase);
-                    double rounded = 0.85 * pure + 0.15 * Math.sin(phase * 0.5);
-                    double sVal = rounded * env * hann * 0.30;
+                        int g = sent + i;
+
+                        double sVal;
+                        if (exact) {
+                            double env  = envelope(g, total, attack, release);
+                            double hann = hardCut ? 1.0 : 0.5 * (1 - Math.cos(2 * Math.PI * g / Math.max(1, total - 1)));
+                            double pure = Math.sin(phase);
+                            double rounded = 0.85 * pure + 0.15 * Math.sin(phase * 0.5);
+                            sVal = rounded * env * hann * 0.30;
+                        } else {
+                            sVal = Wavetable.rounded(phase) * gain[g];
+                        }
 
-                    double l = sVal;
-                    double r = sVal;
+                        double l = sVal;
+                        double r = sVal;
+
+                        if (tailPos < XFADE_FRAMES) {
+                            double old = exact
+                                    ? (0.85 * Math.sin(tailPhase) + 0.15 * Math.sin(tailPhase * 0.5)) * tailAmp
+                                    : Wavetable.rounded(tailPhase) * tailAmp;
+                            double t = XFADE[tailPos++];
+                            l = old * (1 - t) + l * t;
+                            r = old * (1 - t) + r * t;
+                            tailPhase += tailStep;
+                            if (tailPhase > 2 * Math.PI) tailPhase -= 2 * Math.PI;
+                        } else if (haveLastOut) {
+                            int idx = sent + i;
+                            if (idx < RAMP_SAMPLES) {
+                                double t = exact
+                                        ? 0.5 - 0.5 * Math.cos(Math.PI * idx / (RAMP_SAMPLES - 1))
+                                        : RAMP[idx];
+                                l = lastOutL * (1 - t) + l * t;
+                                r = lastOutR * (1 - t) + r * t;
+                            }
+                        }
 
-                    if (haveLastOut) {
-                        int idx = sent + i;
-                        if (idx < RAMP_SAMPLES) {
-                            double t = 0.5 - 0.5 * Math.cos(Math.PI * idx / (RAMP_SAMPLES - 1));
-                            l = lastOutL * (1 - t) + l * t;
-                            r = lastOutR * (1 - t) + r * t;
+                        if (duckDir != 0) {
+                            double k = (duckDir > 0) ? PAUSE_FADE[duckPos] : 1 - PAUSE_FADE[duckPos];
+                            l *= k;
+                            r *= k;
+                            if (++duckPos == PAUSE_FADE_FRAMES && duckDir > 0) duckDir = 0;
                         }
-                    }
 
-                    int li = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(l * 32767)));
-                    int ri = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(r * 32767)));
-                    buf[bi++] = (byte) (li & 0xFF);
-                    buf[bi++] = (byte) ((li >>> 8) & 0xFF);
-                    buf[bi++] = (byte) (ri & 0xFF);
-                    buf[bi++] = (byte) ((ri >>> 8) & 0xFF);
+                        int li = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(l * 32767)));
+                        int ri = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(r * 32767)));
+                        buf[bi++] = (byte) (li & 0xFF);
+                        buf[bi++] = (byte) ((li >>> 8) & 0xFF);
+                        buf[bi++] = (byte) (ri & 0xFF);
+                        buf[bi++] = (byte) ((ri >>> 8) & 0xFF);
 
-                    phase += step;
-                    if (phase > 2 * Math.PI) phase -= 2 * Math.PI;
+                        phase += step;
+                        if (phase > 2 * Math.PI) phase -= 2 * Math.PI;
 
-                    outL = l;
-                    outR = r;
+                        outL = l;
+                        outR = r;
+                    }
                 }
 
-                line.write(buf, 0, frames * 4);
+                sink.write(buf, 0, frames * 4);
                 sent += frames;
+
+                if (duckDir < 0 && duckPos >= PAUSE_FADE_FRAMES) {
+                    // Faded out: stop the device and sleep, then pick up at the next sample
+                    idleWhilePaused(paused, interrupt);
+                    duckDir = 1;
+                    duckPos = 0;
+                }
             }
 
             if (hardCut) {
@@ -1993,9 +5203,7 @@ public class BugaSphereFivePhaseExperience {
 
         @Override
         public void close() {
-            try { line.drain(); } catch (Exception ignore) {}
-            line.stop();
-            line.close();
+            sink.close();
         }
     }
 
@@ -2021,9 +5229,539 @@ public class BugaSphereFivePhaseExperience {
         return flat + octave;
     }
 
+    /**
+     * Plays phase idx of the loop under the given modes. Both the live
+     * phase-loop thread and the offline renderer go through here, so a
+     * render is sample-identical to what the speakers get.
+     */
+    static void playPhase(TonePlayer tp, int idx, int epoch,
+                          SpeedMode speed, BreathStyle breath, TransitionMode transition,
+                          PauseGate paused, AtomicBoolean interrupt, AtomicBoolean cut,
+                          Runnable onStart) {
+        int frames = tp.nextPhaseFrames(phaseMsFor(speed));
+        tp.markPhaseStart(idx, frames, epoch);
+        tp.playSimple(
+                PHASES[idx].hz,
+                frames,
+                inhaleFracFor(breath),
+                paused,
+                interrupt,
+                cut,
+                transition == TransitionMode.HARD_CUT,
+                onStart
+        );
+    }
+
+    /* ---------- Tools ---------- */
+
+    /**
+     * --render <out.wav> [--speed ZEN] [--breath DEEP_CALM] [--transition SOFT] [--minutes 60]
+     *
+     * Renders a session offline, as fast as the CPU allows, starting at Origin
+     * exactly like a live session. Whole phases are rendered until the requested
+     * length is reached; audio streams to disk through the WAV sink in 64 KB chunks.
+     */
+    private static void renderOffline(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: --render <out.wav> [--speed IGNITE|BALANCE|HARMONY|ZEN|TRANSCEND]"
+                    + " [--breath COHERENT|RELAXED|DEEP_CALM] [--transition HARD_CUT|SOFT] [--minutes N]");
+            return;
+        }
+        Path out = Paths.get(args[1]);
+        SpeedMode speed = SpeedMode.ZEN;
+        BreathStyle breath = BreathStyle.COHERENT;
+        TransitionMode transition = TransitionMode.SOFT;
+        double minutes = 10.0;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            String v = args[i + 1].trim().toUpperCase();
+            switch (args[i]) {
+                case "--speed":      speed = SpeedMode.valueOf(v);           break;
+                case "--breath":     breath = BreathStyle.valueOf(v);        break;
+                case "--transition": transition = TransitionMode.valueOf(v); break;
+                case "--minutes":    minutes = Double.parseDouble(v);        break;
+                default:
+                    System.err.println("Ignoring unknown option " + args[i]);
+            }
+        }
+
+        int phaseMs = phaseMsFor(speed);
+        long phases = Math.max(1L, (long) Math.ceil(minutes * 60_000.0 / phaseMs));
+        PauseGate paused = new PauseGate(false);
+        AtomicBoolean interrupt = new AtomicBoolean(false);
+        AtomicBoolean cut = new AtomicBoolean(false);
+
+        System.out.println("Rendering " + phases + " phases (" + Panel.speedLabelShort(speed) + ", "
+                + Panel.breathLabel(breath) + ", " + Panel.transitionLabel(transition) + ") to " + out);
+
+        long t0 = System.nanoTime();
+        WavFileSink sink = new WavFileSink(out, TonePlayer.FORMAT, false);
+        try (TonePlayer tp = new TonePlayer(sink, SynthQuality.fromSystemProperty())) {
+            int idx = 0;
+            long tenth = Math.max(1L, phases / 10);
+            for (long n = 1; n <= phases; n++) {
+                playPhase(tp, idx, 0, speed, breath, transition, paused, interrupt, cut, null);
+                idx = (idx + 1) % PHASES.length;
+                if (n % tenth == 0 && n < phases) {
+                    System.out.printf("  %3d%%%n", n * 100 / phases);
+                }
+            }
+        }
+        double wallSec  = (System.nanoTime() - t0) / 1e9;
+        double audioSec = sink.framesWritten() / (double) TonePlayer.SR;
+        System.out.printf("Rendered %s of audio in %.2f s (%.0fx realtime)%n",
+                fmtHms((long) (audioSec * 1000)), wallSec, audioSec / Math.max(1e-9, wallSec));
+    }
+
+    /**
+     * --bench-synth [seconds]: synthesis throughput without a sound card.
+     * Plays the five phases (BALANCE, Soft and Hard) into an unpaced null sink
+     * for each SynthQuality and reports frames per second. Each engine keeps
+     * one player throughout, as a session does: the warm-up pass includes the
+     * first loop, when the per-phase tables are built, and the measured passes
+     * are the loops after it. A measured pass also runs for at least
+     * MIN_PASS_NANOS, so the fastest engine is not timed over a few milliseconds.
+     */
+    private static final long MIN_PASS_NANOS = 250_000_000L;
+
+    private static void benchSynth(String[] args) {
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 120.0;
+        long target = (long) (seconds * TonePlayer.SR);
+        PauseGate paused = new PauseGate(false);
+        AtomicBoolean interrupt = new AtomicBoolean(false);
+        AtomicBoolean cut = new AtomicBoolean(false);
+        int ms = phaseMsFor(SpeedMode.BALANCE);
+        SynthQuality[] qualities = SynthQuality.values();
+        double[][] best = new double[qualities.length][2];
+        TonePlayer[][] players = new TonePlayer[qualities.length][2];
+        for (int qi = 0; qi < qualities.length; qi++) {
+            for (int h = 0; h < 2; h++) players[qi][h] = new TonePlayer(new NullSink(TonePlayer.FORMAT, false), qualities[qi]);
+        }
+        long loop = (long) PHASES.length * TonePlayer.phaseFrames(ms);
+
+        // One warm-up pass of at least a loop, then three measured passes interleaved
+        // across engines so a noisy machine hits them all alike; best pass wins
+        for (int pass = 0; pass < 4; pass++) {
+            boolean warmup = (pass == 0);
+            for (int qi = 0; qi < qualities.length; qi++) {
+                for (int h = 0; h < 2; h++) {
+                    boolean hard = (h == 1);
+                    TonePlayer tp = players[qi][h];
+                    long from = tp.sink.framesWritten();
+                    long goal = from + (warmup ? Math.max(loop, target / 4) : target / 3);
+                    long t0 = System.nanoTime();
+                    int idx = 0;
+                    while (tp.sink.framesWritten() < goal
+                            || (!warmup && System.nanoTime() - t0 < MIN_PASS_NANOS)) {
+                        tp.playSimple(PHASES[idx].hz, TonePlayer.phaseFrames(ms), 0.5, paused, interrupt, cut, hard, null);
+                        idx = (idx + 1) % PHASES.length;
+                    }
+                    double fps = (tp.sink.framesWritten() - from) / ((System.nanoTime() - t0) / 1e9);
+                    if (!warmup) best[qi][h] = Math.max(best[qi][h], fps);
+                }
+            }
+        }
+        for (int qi = 0; qi < qualities.length; qi++) {
+            for (int h = 0; h < 2; h++) {
+                double fps = best[qi][h];
+                System.out.printf("%-5s %-4s %,14.0f frames/s  (%.0fx realtime)%n",
+                        qualities[qi], h == 1 ? "Hard" : "Soft", fps, fps / TonePlayer.SR);
+            }
+        }
+    }
+
+    /**
+     * --check-alloc [frames]: paints the panel off screen (1920×1080, HUD and
+     * History on, Soft fades, continuous rotation, IGNITE so fades come often)
+     * in real time, stepping phases as the audio loop would, and reads the
+     * painting thread's allocated-bytes counter. Runs once with a session
+     * active and once showing the last session's segments. The pentagon is
+     * held at FULL detail unless -Dbuga.render.quality says otherwise, as in
+     * --bench-render, so the governor cannot change what is measured. Exits
+     * with status 1 if a run averages more than ALLOC_LIMIT_PER_FRAME bytes
+     * per frame, so the paint path stays garbage-free. What is left (about
+     * 220 bytes with a session active, 180 without) is Java2D's own: each
+     * antialiased fill or stroke (pentagon, needle) creates a small path iterator.
+     */
+    private static final long ALLOC_LIMIT_PER_FRAME = 512L;
+
+    private static void checkPaintAllocations(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Per-thread allocation counters are not available on this JVM");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        long tid = Thread.currentThread().getId();
+        if (System.getProperty("buga.render.quality") == null) {
+            System.setProperty("buga.render.quality", "full");
+        }
+
+        Panel panel = new Panel();
+        panel.setSize(1920, 1080);
+        panel.transition = TransitionMode.SOFT;
+        panel.rotationMode = RotationMode.CONTINUOUS;
+        panel.speedMode = SpeedMode.IGNITE;
+        panel.setPausedVisual(false);
+        panel.resetToTop();
+        lastSessionInfo = "Mon 09:30 → 10:15 (00:45:00) — Coherent, ZEN, Soft, Continuous";
+
+        BufferedImage img = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        boolean ok = true;
+        String[] runs = { "session active", "last session shown" };
+        for (int r = 0; r < runs.length; r++) {
+            String run = runs[r];
+            if (r == 0) {
+                panel.startSessionTimer();
+            } else {
+                panel.setBreathStyle(BreathStyle.DEEP_CALM);
+                panel.setSpeedMode(SpeedMode.BALANCE);
+                panel.stopSessionTimer();
+                panel.setSpeedMode(SpeedMode.IGNITE);
+            }
+            // Warm up caches and the JIT over one full loop
+            for (int i = 0; i < 700; i++) {
+                advancePhase(panel);
+                panel.paintComponent(g);
+                LockSupport.parkNanos(16_000_000L);
+            }
+
+            long before = threads.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < frames; i++) {
+                advancePhase(panel);
+                panel.paintComponent(g);
+                LockSupport.parkNanos(16_000_000L);
+            }
+            long perFrame = (threads.getThreadAllocatedBytes(tid) - before) / frames;
+            boolean pass = perFrame <= ALLOC_LIMIT_PER_FRAME;
+            ok &= pass;
+            System.out.printf("%-20s %,8d bytes/frame over %d frames  %s%n",
+                    run, perFrame, frames, pass ? "OK" : "FAIL (limit " + ALLOC_LIMIT_PER_FRAME + ")");
+        }
+        g.dispose();
+        System.exit(ok ? 0 : 1);
+    }
+
+    // Stands in for the audio loop: starts the next phase once the current one has run its length
+    private static void advancePhase(Panel panel) {
+        if (System.nanoTime() - panel.phaseStartNanos < panel.phaseMsCurrent * 1_000_000L) return;
+        int next = (panel.phaseIndex + 1) % PHASES.length;
+        panel.setPhaseAtAudioStart(PHASES[next], PHASES[(next + 1) % PHASES.length].color, next);
+    }
+
+    /**
+     * --bench-render [--size 1920x1080] [--speed IGNITE] [--fps 60] [--png <dir>] [--png-every 15]
+     *
+     * Paint throughput without a window. Draws the panel into an image with a
+     * simulated clock: every transition × rotation mode, each a full loop of
+     * five phases sampled at the given frame rate, so every fade, flip and
+     * rotation is painted, with a session active and HUD and History on. One
+     * untimed loop warms the JIT; then reports frames per second and per-frame
+     * percentiles of paintComponent for each mode and overall. The pentagon is
+     * held at FULL detail unless -Dbuga.render.quality says otherwise, so the
+     * governor does not change what is measured. PNG writes are not timed.
+     */
+    private static void benchRender(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        if (System.getProperty("buga.render.quality") == null) {
+            System.setProperty("buga.render.quality", "full");
+        }
+        int w = 1920, h = 1080, fps = 60, pngEvery = 15;
+        SpeedMode speed = SpeedMode.IGNITE;
+        Path pngDir = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String v = args[i + 1].trim();
+            switch (args[i]) {
+                case "--size": {
+                    String[] wh = v.toLowerCase().split("x");
+                    w = Integer.parseInt(wh[0]);
+                    h = Integer.parseInt(wh[1]);
+                    break;
+                }
+                case "--speed":     speed = SpeedMode.valueOf(v.toUpperCase());  break;
+                case "--fps":       fps = Math.max(1, Integer.parseInt(v));      break;
+                case "--png":       pngDir = Paths.get(v);                       break;
+                case "--png-every": pngEvery = Math.max(1, Integer.parseInt(v)); break;
+                default:
+                    System.err.println("Ignoring unknown option " + args[i]);
+            }
+        }
+        if (pngDir != null) Files.createDirectories(pngDir);
+
+        Panel panel = new Panel();
+        panel.setSize(w, h);
+        // Frames come from the loop below, not from the panel's timer
+        panel.setRenderSuspended(true);
+        panel.speedMode = speed;
+        panel.setPausedVisual(false);
+        panel.resetToTop();
+        panel.startSessionTimer();
+        lastSessionInfo = "Mon 09:30 → 10:15 (00:45:00) — Coherent, ZEN, Soft, Continuous";
+
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        long stepN = 1_000_000_000L / fps;
+        int perPhase = (int) Math.max(1L, phaseMsFor(speed) * 1_000_000L / stepN);
+        int perLoop = perPhase * PHASES.length;
+        TransitionMode[] transitions = TransitionMode.values();
+        RotationMode[] rotations = RotationMode.values();
+        long[] all = new long[transitions.length * rotations.length * perLoop];
+        long[] loop = new long[perLoop];
+
+        System.out.printf("Painting %dx%d, %s, %d frames per loop at %d fps, scale %.2f, quality %s%n",
+                w, h, Panel.speedLabelShort(speed), perLoop, fps,
+                Math.min(panel.renderScale, panel.quality.level().maxScale), panel.quality.level().label);
+        benchRenderLoop(panel, img, g, TransitionMode.SOFT, RotationMode.CONTINUOUS, perPhase, stepN, loop, null, 1, 0);
+
+        int n = 0, shot = 0;
+        for (TransitionMode tm : transitions) {
+            for (RotationMode rm : rotations) {
+                shot = benchRenderLoop(panel, img, g, tm, rm, perPhase, stepN, loop, pngDir, pngEvery, shot);
+                System.arraycopy(loop, 0, all, n, perLoop);
+                n += perLoop;
+                printFrameTimes(Panel.transitionLabel(tm) + ", " + Panel.rotationLabel(rm), loop);
+            }
+        }
+        printFrameTimes("all", all);
+        if (pngDir != null) System.out.println("Wrote " + shot + " PNG frames to " + pngDir);
+        g.dispose();
+    }
+
+    // One loop of five phases in one mode; frame k of a phase is painted as if shown k steps after its start.
+    // Every pngEvery-th frame is written to pngDir when one is given; returns the PNG count so far.
+    private static int benchRenderLoop(Panel panel, BufferedImage img, Graphics2D g,
+                                       TransitionMode tm, RotationMode rm, int perPhase, long stepN,
+                                       long[] times, Path pngDir, int pngEvery, int shot) throws IOException {
+        panel.transition = tm;
+        panel.rotationMode = rm;
+        panel.resetToTop();
+        int f = 0;
+        for (int idx = 0; idx < PHASES.length; idx++) {
+            if (idx > 0) panel.setPhaseAtAudioStart(PHASES[idx], PHASES[(idx + 1) % PHASES.length].color, idx);
+            long startN = panel.phaseStartNanos;
+            for (int k = 0; k < perPhase; k++, f++) {
+                long t0 = System.nanoTime();
+                panel.paintFrame(g, startN + k * stepN, null);
+                times[f] = System.nanoTime() - t0;
+                if (pngDir != null && f % pngEvery == 0) {
+                    String name = String.format("frame-%05d-%s-%s.png", shot++,
+                            tm.name().toLowerCase(), rm.name().toLowerCase());
+                    ImageIO.write(img, "png", pngDir.resolve(name).toFile());
+                }
+            }
+        }
+        return shot;
+    }
+
+    private static void printFrameTimes(String label, long[] nanos) {
+        long[] s = nanos.clone();
+        Arrays.sort(s);
+        long total = 0L;
+        for (long v : s) total += v;
+        System.out.printf("  %-24s %7.0f fps   p50 %6.2f  p90 %6.2f  p99 %6.2f  max %6.2f ms%n",
+                label, s.length / Math.max(1e-9, total / 1e9),
+                s[(int) (s.length * 0.50)] / 1e6, s[(int) (s.length * 0.90)] / 1e6,
+                s[Math.min(s.length - 1, (int) (s.length * 0.99))] / 1e6, s[s.length - 1] / 1e6);
+    }
+
+    /**
+     * --bench-startup [records...]: launch cost against history size. For each
+     * size (default 1, 2 and 4 million journal records) writes a synthetic
+     * history of three-segment sessions to a temporary directory, then times
+     * what launch does, opening the journal and reading back the last session,
+     * and counts the bytes read; best of five. The second figure deletes the
+     * snapshot first: the full replay a lost or damaged snapshot costs.
+     */
+    private static void benchStartup(String[] args) throws IOException {
+        long[] sizes = { 1_000_000L, 2_000_000L, 4_000_000L };
+        if (args.length > 1) {
+            sizes = new long[args.length - 1];
+            for (int i = 1; i < args.length; i++) sizes[i - 1] = Long.parseLong(args[i].replace("_", ""));
+        }
+        List<Panel.Segment> segs = new ArrayList<>();
+        for (SpeedMode sm : new SpeedMode[] { SpeedMode.ZEN, SpeedMode.BALANCE, SpeedMode.TRANSCEND }) {
+            Panel.Segment seg = new Panel.Segment(0L, BreathStyle.COHERENT, sm, TransitionMode.SOFT, RotationMode.CONTINUOUS);
+            seg.durationMs = 240_000L;
+            segs.add(seg);
+        }
+
+        for (long records : sizes) {
+            Path dir = Files.createTempDirectory("buga-startup");
+            try {
+                clearTotals();
+                long sessions = records / (segs.size() + 1);
+                long startMs = System.currentTimeMillis() - sessions * 3_600_000L;
+                try (SessionJournal j = SessionJournal.open(dir)) {
+                    for (long i = 0; i < sessions; i++, startMs += 3_600_000L) {
+                        SessionRecord rec = new SessionRecord(nextSessionId++, startMs, startMs + 720_000L, 720_000L,
+                                BreathStyle.COHERENT, SpeedMode.TRANSCEND, TransitionMode.SOFT, RotationMode.CONTINUOUS, segs);
+                        updateTotalsForSession(rec.segments, rec.durationMs);
+                        j.append(rec, totalsSnapshot());
+                        if ((i + 1) % 4096 == 0) j.commit();
+                    }
+                }
+
+                double bestMs = Double.MAX_VALUE;
+                long read = 0L;
+                for (int run = 0; run < 5; run++) {
+                    clearTotals();
+                    long t0 = System.nanoTime();
+                    try (SessionJournal j = SessionJournal.open(dir)) {
+                        j.readLast();
+                        bestMs = Math.min(bestMs, (System.nanoTime() - t0) / 1e6);
+                        read = j.bytesRead();
+                    }
+                }
+
+                Files.delete(dir.resolve("totals.snap"));
+                clearTotals();
+                double replayMs;
+                long replayRead;
+                long t0 = System.nanoTime();
+                try (SessionJournal j = SessionJournal.open(dir)) {
+                    j.readLast();
+                    replayMs = (System.nanoTime() - t0) / 1e6;
+                    replayRead = j.bytesRead();
+                }
+
+                System.out.printf("%,11d records (%,5d MB)  launch %7.2f ms, %,7d bytes read"
+                                + "   without snapshot %,8.0f ms, %,d bytes read%n",
+                        records, Files.size(dir.resolve("journal.bin")) >> 20, bestMs, read, replayMs, replayRead);
+            } finally {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path f : files) Files.deleteIfExists(f);
+                }
+                Files.deleteIfExists(dir);
+            }
+        }
+    }
+
+    /**
+     * --check-journal: replay against a damaged journal. Writes a short
+     * history to a temporary directory, then for each kind of damage (a
+     * flipped bit in a session record, in a segment record, a torn tail)
+     * deletes the snapshot and index so open() replays everything, and checks
+     * that only the damaged session is lost, the sessions after it are kept,
+     * and the file is cut only for the torn tail. Exits with status 1 on any
+     * failure.
+     */
+    private static void checkJournal() throws IOException {
+        final int sessions = 20, damagedAt = 7, r = SessionJournal.RECORD_BYTES;
+        List<Panel.Segment> segs = new ArrayList<>();
+        for (BreathStyle bs : new BreathStyle[] { BreathStyle.COHERENT, BreathStyle.DEEP_CALM }) {
+            Panel.Segment seg = new Panel.Segment(0L, bs, SpeedMode.ZEN, TransitionMode.SOFT, RotationMode.CONTINUOUS);
+            seg.durationMs = 60_000L;
+            segs.add(seg);
+        }
+        // Session k is records 3k and 3k+1 (segments) and 3k+2 (the session)
+        String[] cases = { "session record damaged", "segment record damaged", "torn tail" };
+        long[] flipAt = { (3L * damagedAt + 2) * r + 20, (3L * damagedAt) * r + 36, -1L };
+        boolean ok = true;
+        for (int c = 0; c < cases.length; c++) {
+            Path dir = Files.createTempDirectory("buga-journal");
+            try {
+                clearTotals();
+                try (SessionJournal j = SessionJournal.open(dir)) {
+                    for (int i = 0; i < sessions; i++) {
+                        SessionRecord rec = new SessionRecord(nextSessionId++, i * 3_600_000L, i * 3_600_000L + 120_000L,
+                                120_000L, BreathStyle.DEEP_CALM, SpeedMode.ZEN, TransitionMode.SOFT, RotationMode.CONTINUOUS, segs);
+                        updateTotalsForSession(rec.segments, rec.durationMs);
+                        j.append(rec, totalsSnapshot());
+                    }
+                }
+                long[] whole = totalsSnapshot();
+                Path journalPath = dir.resolve("journal.bin");
+                long size = Files.size(journalPath);
+                try (FileChannel ch = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer b = ByteBuffer.allocate(r / 2);
+                    if (flipAt[c] >= 0L) {
+                        b.limit(1);
+                        ch.read(b, flipAt[c]);
+                        b.put(0, (byte) (b.get(0) ^ 0x10)).rewind();
+                        ch.write(b, flipAt[c]);
+                    } else {
+                        // Half of a record, as a crash mid-write leaves it
+                        while (b.hasRemaining()) b.put((byte) 0x5A);
+                        b.flip();
+                        ch.write(b, size);
+                    }
+                }
+                Files.delete(dir.resolve("totals.snap"));
+                Files.delete(dir.resolve("sessions.idx"));
+
+                clearTotals();
+                long expectSessions = (c == 0) ? sessions - 1 : sessions;
+                long expectTotalMs = (c == 0) ? whole[1] - 120_000L : whole[1];
+                try (SessionJournal j = SessionJournal.open(dir)) {
+                    SessionRecord last = j.readLast();
+                    boolean pass = lifetimeSessions == expectSessions && lifetimeTotalMs == expectTotalMs
+                            && j.sessionCount() == expectSessions && last != null && last.id == sessions
+                            && Files.size(journalPath) == size;
+                    ok &= pass;
+                    System.out.printf("%-24s %2d of %d sessions, last #%d, %,d of %,d bytes kept  %s%n",
+                            cases[c], lifetimeSessions, sessions, (last == null) ? 0L : last.id,
+                            Files.size(journalPath), size, pass ? "OK" : "FAIL");
+                }
+            } finally {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path f : files) Files.deleteIfExists(f);
+                }
+                Files.deleteIfExists(dir);
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    // How long closing the window waits for queued sessions to be written
+    private static final long SAVE_FLUSH_TIMEOUT_MS = 3000L;
+
     /* ---------- Main ---------- */
     public static void main(String[] args) {
-        loadTotals();
+        if (args.length > 0 && args[0].equals("--bench-synth")) {
+            benchSynth(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--check-alloc")) {
+            checkPaintAllocations(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-render")) {
+            try {
+                benchRender(args);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-startup")) {
+            try {
+                benchStartup(args);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--check-journal")) {
+            try {
+                checkJournal();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--render")) {
+            try {
+                renderOffline(args);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        openJournal();
 
         SwingUtilities.invokeLater(() -> {
             JFrame f = new JFrame("BugaSphere Five-Phase Experience Version 12");
@@ -2076,6 +5814,7 @@ public class BugaSphereFivePhaseExperience {
 
             // Load last session + segments so History is ready at launch
             loadLastSessionFromDisk(panel);
+            startCheckpoints(panel);
 
             final Color ACCENT = new Color(0xFFAA33);
 
@@ -2247,8 +5986,11 @@ public class BugaSphereFivePhaseExperience {
             rotCont.addActionListener(e -> panel.setRotationMode(RotationMode.CONTINUOUS));
             rotKin.addActionListener(e -> panel.setRotationMode(RotationMode.KINETIC_STEP));
 
-            AtomicBoolean paused = new AtomicBoolean(true);
+            PauseGate paused = new PauseGate(true);
             FullScreenHelper fs = new FullScreenHelper(f);
+            if (!"false".equalsIgnoreCase(System.getProperty("buga.render.active", "true").trim())) {
+                fs.setActiveRenderer(new ActiveRenderer(panel));
+            }
 
             f.pack();
             f.setLocationRelativeTo(null);
@@ -2258,7 +6000,7 @@ public class BugaSphereFivePhaseExperience {
                 if (panel.sessionActive) return;
 
                 // Ask audio loop to snap back to Origin on next phase
-                panel.resetRequested.set(true);
+                panel.requestAudioReset();
 
                 panel.resetToTop();
                 panel.startSessionTimer();
@@ -2284,7 +6026,6 @@ public class BugaSphereFivePhaseExperience {
                     boolean nowPaused = !paused.get();
                     paused.set(nowPaused);
                     panel.setPausedVisual(nowPaused);
-                    panel.handlePauseResume(nowPaused);
                 }
             });
 
@@ -2347,7 +6088,6 @@ public class BugaSphereFivePhaseExperience {
                         boolean nowPaused = !paused.get();
                         paused.set(nowPaused);
                         panel.setPausedVisual(nowPaused);
-                        panel.handlePauseResume(nowPaused);
                     }
                 }
             });
@@ -2357,6 +6097,26 @@ public class BugaSphereFivePhaseExperience {
                 public void actionPerformed(ActionEvent e) { toggleHUD.run(); }
             });
 
+            im.put(KeyStroke.getKeyStroke("F3"), "perf");
+            am.put("perf", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) { panel.togglePerfOverlay(); }
+            });
+
+            im.put(KeyStroke.getKeyStroke("shift F3"), "perfCache");
+            am.put("perfCache", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) { panel.toggleRenderCache(); }
+            });
+
+            im.put(KeyStroke.getKeyStroke("PAGE_UP"), "histOlder");
+            am.put("histOlder", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) { panel.showPastSession(-1); }
+            });
+
+            im.put(KeyStroke.getKeyStroke("PAGE_DOWN"), "histNewer");
+            am.put("histNewer", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) { panel.showPastSession(+1); }
+            });
+
             im.put(KeyStroke.getKeyStroke("ESCAPE"), "esc");
             am.put("esc", new AbstractAction() {
                 public void actionPerformed(ActionEvent e) { escAction.run(); }
@@ -2471,37 +6231,34 @@ public class BugaSphereFivePhaseExperience {
             Thread loop = new Thread(() -> {
                 try (TonePlayer tp = new TonePlayer()) {
                     int idx = 0;
+                    panel.audio = tp;
+
+                    // One start callback per phase, created once so the loop allocates nothing
+                    Runnable[] onPhaseStart = new Runnable[PHASES.length];
+                    for (int i = 0; i < PHASES.length; i++) {
+                        final Phase p    = PHASES[i];
+                        final Phase next = PHASES[(i + 1) % PHASES.length];
+                        final int phaseIdx = i;
+                        onPhaseStart[i] = () -> panel.setPhaseAtAudioStart(p, next.color, phaseIdx);
+                    }
 
                     panel.resetToTop();
 
                     while (!interrupt.get()) {
-                        while (paused.get() && !interrupt.get()) {
-                            try { Thread.sleep(20); } catch (InterruptedException ignored) {}
+                        if (paused.get()) {
+                            tp.idleWhilePaused(paused, interrupt);
                         }
                         if (interrupt.get()) break;
 
                         if (panel.resetRequested.getAndSet(false)) {
                             idx = 0;
+                            tp.restartRun();
                             panel.resetToTop();
                         }
 
-                        Phase p    = PHASES[idx];
-                        Phase next = PHASES[(idx + 1) % PHASES.length];
-
-                        final int phaseIdxFinal = idx;
-                        int ms = panel.perPhaseMs();
-                        double inhaleFrac = panel.inhaleFrac;
-                        boolean hard = (panel.transition == TransitionMode.HARD_CUT);
-
-                        tp.playSimple(
-                                p.hz,
-                                ms,
-                                inhaleFrac,
-                                paused,
-                                interrupt,
-                                hard,
-                                () -> panel.setPhaseAtAudioStart(p, next.color, phaseIdxFinal)
-                        );
+                        playPhase(tp, idx, panel.modeEpoch,
+                                panel.speedMode, panel.breathStyle, panel.transition,
+                                paused, interrupt, panel.resetRequested, onPhaseStart[idx]);
 
                         if (interrupt.get()) break;
 
@@ -2525,7 +6282,25 @@ public class BugaSphereFivePhaseExperience {
                         long endMs = startMs + dur;
                         logSession(panel, startMs, endMs, dur);
                     }
+                    if (writer != null) writer.flush(SAVE_FLUSH_TIMEOUT_MS);
                     interrupt.set(true);
+                    paused.wakeAll();
+                }
+            });
+
+            // Frames nobody sees are not drawn; the audio loop carries on
+            Runnable trackVisibility = () -> panel.setRenderSuspended(
+                    !f.isShowing() || (f.getExtendedState() & Frame.ICONIFIED) != 0);
+            f.addWindowStateListener(e -> trackVisibility.run());
+            f.addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentShown(ComponentEvent e) {
+                    trackVisibility.run();
+                }
+
+                @Override
+                public void componentHidden(ComponentEvent e) {
+                    trackVisibility.run();
                 }
             });
 